@@ -27,6 +27,33 @@ public class ClsConfig {
 
   private boolean isDebug = false;
 
+  /**
+   * 自定义上报地址,如 http://127.0.0.1:8080 ,为空则根据 region 生成 (测试或代理场景使用)
+   */
+  private String endpoint;
+
+  /**
+   * 熔断 : 连续失败次数阈值
+   */
+  private int circuitFailureThreshold = 5;
+
+  /**
+   * 熔断 : 最近 circuitWindowSize 个请求的失败率阈值 (百分比)
+   */
+  private int circuitFailureRate = 50;
+
+  private int circuitWindowSize = 20;
+
+  /**
+   * 熔断时间 (毫秒),到期后发送一个探测请求
+   */
+  private long circuitOpenMillis = 10_000;
+
+  /**
+   * 同一数据包因限流累计重发的次数上限,超出后放弃
+   */
+  private int throttleRetries = 10;
+
   public void setRegion(REGION region) {
     this.region = region.name;
   }
@@ -36,10 +63,25 @@ public class ClsConfig {
   }
 
   public String getHost() {
-    String hostUrlTemplate = isInternal ? INTERNAL_HOST_URL_TEMPLATE : EXTERNAL_HOST_URL_TEMPLATE;
+    return getHost(isInternal);
+  }
+
+  /**
+   * @param internal 是否腾讯云内网地址
+   * @return 对应的上报域名
+   */
+  public String getHost(boolean internal) {
+    String hostUrlTemplate = internal ? INTERNAL_HOST_URL_TEMPLATE : EXTERNAL_HOST_URL_TEMPLATE;
     return String.format(hostUrlTemplate, this.region);
   }
 
+  public String getBaseUrl() {
+    if (endpoint != null && !endpoint.isEmpty()) {
+      return endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    }
+    return "https://".concat(getHost());
+  }
+
   public enum REGION {
 
     /**
@@ -0,0 +1,217 @@
+package com.sevlow.cls.logback;
+
+/**
+ * CLS 上报熔断器
+ * <p>
+ * CLOSED : 正常上报,连续失败次数或最近窗口内失败率超过阈值后熔断
+ * <p>
+ * OPEN : 停止上报,由调用方走降级策略,熔断时间到期后进入 HALF_OPEN
+ * <p>
+ * HALF_OPEN : 只放行一个探测请求,成功则恢复,失败则重新熔断;探测许可未使用时需归还,
+ * 超过 probeTimeoutMillis 仍未返回时重新放行一个探测请求
+ * <p>
+ * 每个数据包只调用一次 (非高频路径),直接使用同步方法
+ *
+ * @author einsitang
+ */
+public class CircuitBreaker {
+
+  // 探测请求默认最长等待 60 秒
+  private static final long DEFAULT_PROBE_TIMEOUT_MILLIS = 60_000;
+
+  private final int failureThreshold;
+
+  private final int failureRateThreshold;
+
+  private final long openMillis;
+
+  private final long probeTimeoutMillis;
+
+  /**
+   * 最近窗口内的请求结果,true 为失败
+   */
+  private final boolean[] window;
+
+  private int windowIndex;
+
+  private int windowCount;
+
+  private int windowFailures;
+
+  private int consecutiveFailures;
+
+  private State state = State.CLOSED;
+
+  private long openUntil;
+
+  private long probeUntil;
+
+  /**
+   * @param failureThreshold     连续失败次数阈值
+   * @param failureRateThreshold 失败率阈值 (百分比),窗口未满时不计算
+   * @param windowSize           失败率统计窗口 (请求数)
+   * @param openMillis           熔断时间 (毫秒)
+   */
+  public CircuitBreaker(int failureThreshold, int failureRateThreshold, int windowSize,
+      long openMillis) {
+    this(failureThreshold, failureRateThreshold, windowSize, openMillis,
+        DEFAULT_PROBE_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param failureThreshold     连续失败次数阈值
+   * @param failureRateThreshold 失败率阈值 (百分比),窗口未满时不计算
+   * @param windowSize           失败率统计窗口 (请求数)
+   * @param openMillis           熔断时间 (毫秒)
+   * @param probeTimeoutMillis   探测请求最长等待时间 (毫秒),超时后重新放行一个探测请求
+   */
+  public CircuitBreaker(int failureThreshold, int failureRateThreshold, int windowSize,
+      long openMillis, long probeTimeoutMillis) {
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.failureRateThreshold = failureRateThreshold;
+    this.window = new boolean[Math.max(1, windowSize)];
+    this.openMillis = openMillis;
+    this.probeTimeoutMillis = Math.max(1, probeTimeoutMillis);
+  }
+
+  /**
+   * 申请上报许可
+   *
+   * @return NONE : 熔断中; NORMAL : 正常上报; PROBE : 探测请求,调用方应只发送少量数据
+   */
+  public synchronized Permit acquire() {
+    switch (state) {
+      case CLOSED:
+        return Permit.NORMAL;
+      case OPEN:
+        if (System.currentTimeMillis() >= openUntil) {
+          return probe();
+        }
+        return Permit.NONE;
+      default:
+        // 探测请求尚未返回,超时视为丢失
+        if (System.currentTimeMillis() >= probeUntil) {
+          return probe();
+        }
+        return Permit.NONE;
+    }
+  }
+
+  /**
+   * 归还未使用的许可 (没有数据或构建数据包失败,未调用上传)
+   * <p>
+   * 探测许可归还后下一次申请立即重新放行探测请求;其他许可无需归还
+   *
+   * @param permit {@link #acquire()} 返回的许可
+   */
+  public synchronized void release(Permit permit) {
+    if (permit == Permit.PROBE && state == State.HALF_OPEN) {
+      state = State.OPEN;
+      openUntil = System.currentTimeMillis();
+    }
+  }
+
+  private Permit probe() {
+    state = State.HALF_OPEN;
+    probeUntil = System.currentTimeMillis() + probeTimeoutMillis;
+    return Permit.PROBE;
+  }
+
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    if (state == State.HALF_OPEN) {
+      close();
+      return;
+    }
+    record(false);
+  }
+
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN) {
+      open();
+      return;
+    }
+    record(true);
+    if (state == State.CLOSED && (consecutiveFailures >= failureThreshold
+        || (windowCount == window.length
+        && windowFailures * 100 >= failureRateThreshold * windowCount))) {
+      open();
+    }
+  }
+
+  /**
+   * @return 距离放行探测请求的时间 (毫秒),不在熔断中或已到期时为 0
+   */
+  public synchronized long millisUntilProbe() {
+    return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void record(boolean failure) {
+    if (windowCount == window.length) {
+      if (window[windowIndex]) {
+        windowFailures--;
+      }
+    } else {
+      windowCount++;
+    }
+    window[windowIndex] = failure;
+    if (failure) {
+      windowFailures++;
+    }
+    windowIndex = (windowIndex + 1) % window.length;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openUntil = System.currentTimeMillis() + openMillis;
+  }
+
+  private void close() {
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    windowIndex = 0;
+    windowCount = 0;
+    windowFailures = 0;
+  }
+
+  public enum State {
+
+    /**
+     * 正常
+     */
+    CLOSED,
+
+    /**
+     * 熔断
+     */
+    OPEN,
+
+    /**
+     * 探测
+     */
+    HALF_OPEN
+  }
+
+  public enum Permit {
+
+    /**
+     * 不允许上报
+     */
+    NONE,
+
+    /**
+     * 正常上报
+     */
+    NORMAL,
+
+    /**
+     * 探测请求
+     */
+    PROBE
+  }
+}
@@ -0,0 +1,136 @@
+package com.sevlow.cls.logback;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CLS 上传错误响应,响应体格式 : {"errorcode":"...","errormessage":"..."}
+ * <p>
+ * 根据 http 状态码与错误码分类,决定重试、拆分、限速还是停止上报
+ *
+ * @author einsitang
+ */
+public final class ClsError {
+
+  private static final Pattern ERROR_CODE = Pattern
+      .compile("\"errorcode\"\\s*:\\s*\"([^\"]*)\"");
+
+  private static final Pattern ERROR_MESSAGE = Pattern
+      .compile("\"errormessage\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+  private static final Set<String> TOO_LARGE_CODES = new HashSet<>(Arrays.asList(
+      "LogSizeExceed", "ContentTooLarge", "RequestEntityTooLarge", "LogCountExceed"));
+
+  private static final Set<String> THROTTLED_CODES = new HashSet<>(Arrays.asList(
+      "SpeedQuotaExceed", "QpsLimitExceed", "RequestLimitExceeded", "LimitExceeded"));
+
+  private static final Set<String> FATAL_CODES = new HashSet<>(Arrays.asList(
+      "AuthFailure", "Unauthorized", "SignatureExpired", "SignatureFailure",
+      "InvalidAuthorization", "OperationDenied", "TopicNotExist", "TopicClosed",
+      "LogsetNotExist", "TopicIsolated"));
+
+  private final int status;
+
+  private final String code;
+
+  private final String message;
+
+  private final Kind kind;
+
+  private ClsError(int status, String code, String message, Kind kind) {
+    this.status = status;
+    this.code = code;
+    this.message = message;
+    this.kind = kind;
+  }
+
+  /**
+   * 解析并分类错误响应
+   *
+   * @param status http 状态码 (非 2xx)
+   * @param body   响应体,可为 null
+   * @return 错误
+   */
+  public static ClsError of(int status, String body) {
+    String code = find(ERROR_CODE, body);
+    String message = find(ERROR_MESSAGE, body);
+    return new ClsError(status, code, message == null ? body : message, classify(status, code));
+  }
+
+  private static Kind classify(int status, String code) {
+    if (status == 413 || TOO_LARGE_CODES.contains(code)) {
+      return Kind.TOO_LARGE;
+    }
+    if (status == 429 || THROTTLED_CODES.contains(code)) {
+      return Kind.THROTTLED;
+    }
+    if (status == 401 || status == 403 || status == 404 || FATAL_CODES.contains(code)) {
+      return Kind.FATAL;
+    }
+    if (status >= 500) {
+      return Kind.RETRYABLE;
+    }
+    return Kind.REJECTED;
+  }
+
+  private static String find(Pattern pattern, String body) {
+    if (body == null || body.isEmpty()) {
+      return null;
+    }
+    Matcher matcher = pattern.matcher(body);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  @Override
+  public String toString() {
+    return "CLS " + kind + " : status=" + status + " errorcode=" + code + " errormessage="
+        + message;
+  }
+
+  public enum Kind {
+
+    /**
+     * 服务端异常 (5xx),计入熔断并有限次重试
+     */
+    RETRYABLE,
+
+    /**
+     * 数据包过大,拆分后重新发送
+     */
+    TOO_LARGE,
+
+    /**
+     * 限流,当前主题退避后重新发送
+     */
+    THROTTLED,
+
+    /**
+     * 鉴权失败或主题不存在,停止上报
+     */
+    FATAL,
+
+    /**
+     * 内容不合法等其他 4xx,重试无意义,丢弃并计数
+     */
+    REJECTED
+  }
+}
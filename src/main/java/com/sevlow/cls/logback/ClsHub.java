@@ -0,0 +1,389 @@
+package com.sevlow.cls.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sevlow.cls.ConsoleLog;
+import com.sevlow.cls.config.ClsConfig;
+import com.squareup.okhttp.OkHttpClient;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLS 共享客户端
+ * <p>
+ * 同一个 LoggerContext 中的多个 appender 共享 HTTP 连接、发送线程、压缩缓冲区与内存预算
+ * <p>
+ * 每个 appender 同一时刻最多占用一个发送线程,每次只发送一个数据包后重新排队,保证各 topic 公平调度
+ * <p>
+ * 在 logback.xml 中以 contextListener 声明 (需在 appender 之前),appender 通过 hub 属性引用 :
+ * <pre>
+ * &lt;contextListener class="com.sevlow.cls.logback.ClsHub"&gt;
+ *   &lt;name&gt;cls&lt;/name&gt;
+ * &lt;/contextListener&gt;
+ * </pre>
+ *
+ * @author einsitang
+ */
+public class ClsHub extends ContextAwareBase implements LifeCycle, LoggerContextListener {
+
+  private static final String CLASS_NAME = ClsHub.class.getName();
+
+  private static final String CONTEXT_KEY_PREFIX = CLASS_NAME.concat(":");
+
+  // 默认发送线程数
+  private static final int DEFAULT_THREADS = 4;
+
+  // 上报地址探测超时 2 秒
+  private static final long PROBE_TIMEOUT_MILLIS = 2_000;
+
+  // 默认内存预算 64MB
+  private static final long DEFAULT_MAX_BUFFER_BYTES = 64L * 1024 * 1024;
+
+  @Getter
+  @Setter
+  private String name;
+
+  @Getter
+  private volatile int threads = DEFAULT_THREADS;
+
+  @Getter
+  @Setter
+  private long maxBufferBytes = DEFAULT_MAX_BUFFER_BYTES;
+
+  @Getter
+  @Setter
+  private int sampleWatermark = 60;
+
+  @Getter
+  @Setter
+  private int dropWatermark = 80;
+
+  @Getter
+  @Setter
+  private int sampleRate = 10;
+
+  @Getter
+  @Setter
+  private String debug;
+
+  private volatile boolean started;
+
+  private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+  private final AtomicLong ticks = new AtomicLong();
+
+  private final CompressBuffers compressBuffers = new CompressBuffers();
+
+  private OkHttpClient httpClient;
+
+  private ScheduledThreadPoolExecutor executor;
+
+  @Getter
+  private MemoryBudget memoryBudget;
+
+  private ConsoleLog consoleLog;
+
+  /**
+   * 根据名称查找已声明的 hub
+   *
+   * @param loggerContext LoggerContext
+   * @param name          hub 名称
+   * @return hub,不存在则为 null
+   */
+  public static ClsHub lookup(ch.qos.logback.core.Context loggerContext, String name) {
+    Object hub = loggerContext.getObject(CONTEXT_KEY_PREFIX.concat(name));
+    return hub instanceof ClsHub ? (ClsHub) hub : null;
+  }
+
+  private boolean isDebug() {
+    return "TRUE".equalsIgnoreCase(debug);
+  }
+
+  @Override
+  public void start() {
+    if (started) {
+      return;
+    }
+    consoleLog = new ConsoleLog(CLASS_NAME, isDebug());
+    httpClient = new OkHttpClient();
+    memoryBudget = new MemoryBudget(maxBufferBytes, sampleWatermark,
+        Math.max(sampleWatermark, dropWatermark), sampleRate);
+    executor = new ScheduledThreadPoolExecutor(Math.max(1, threads),
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("cls-hub-" + (name == null ? "private" : name) + "-thread-%d")
+            .build());
+    // 以 1 秒为最小周期调度,各 appender 按自身 sendInterval 触发
+    executor.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    if (name != null && context != null) {
+      context.putObject(CONTEXT_KEY_PREFIX.concat(name), this);
+    }
+    started = true;
+  }
+
+  /**
+   * 发送线程数,运行中修改立即调整线程池大小
+   *
+   * @param threads 线程数
+   */
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+    ScheduledThreadPoolExecutor current = executor;
+    if (started && current != null) {
+      current.setCorePoolSize(this.threads);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (!started) {
+      return;
+    }
+    started = false;
+    if (name != null && context != null && lookup(context, name) == this) {
+      context.putObject(CONTEXT_KEY_PREFIX.concat(name), null);
+    }
+    consoleLog.log("hub executor 停止...");
+    executor.shutdown();
+  }
+
+  @Override
+  public boolean isStarted() {
+    return started;
+  }
+
+  /**
+   * 创建使用共享连接与压缩缓冲区的 Producer
+   *
+   * @param config 账号配置
+   * @return Producer
+   */
+  public Producer createProducer(ClsConfig config) {
+    return new Producer(config, httpClient, compressBuffers, executor);
+  }
+
+  /**
+   * 创建上报地址选择器,探测在 hub 线程中执行
+   *
+   * @param candidates 候选地址,第一个为探测完成前的默认地址
+   * @return 上报地址选择器
+   */
+  public EndpointSelector createEndpointSelector(List<String> candidates) {
+    return new EndpointSelector(candidates, httpClient, PROBE_TIMEOUT_MILLIS, executor,
+        consoleLog);
+  }
+
+  /**
+   * 在 hub 线程中执行周期任务
+   *
+   * @param task         任务
+   * @param initialDelay 首次延迟
+   * @param period       周期
+   * @param unit         时间单位
+   * @return 任务句柄,用于取消
+   */
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period,
+      TimeUnit unit) {
+    return executor.scheduleAtFixedRate(task, initialDelay, period, unit);
+  }
+
+  /**
+   * 注册发送方
+   *
+   * @param sender 发送方
+   * @return 注册信息
+   */
+  public Registration register(Sender sender) {
+    Registration registration = new Registration(sender);
+    registrations.add(registration);
+    return registration;
+  }
+
+  /**
+   * 注销发送方,已在执行的发送任务会在当前数据包发送后结束 (可通过 {@link Registration#awaitExclusive(long)} 等待)
+   *
+   * @param registration 注册信息
+   */
+  public void unregister(Registration registration) {
+    registration.cancelled = true;
+    registrations.remove(registration);
+  }
+
+  private void tick() {
+    long tick = ticks.incrementAndGet();
+    for (Registration registration : registrations) {
+      int interval = Math.max(1, registration.sender.getSendInterval());
+      if (tick % interval == 0) {
+        registration.trigger();
+      }
+    }
+  }
+
+  @Override
+  public boolean isResetResistant() {
+    return false;
+  }
+
+  @Override
+  public void onStart(LoggerContext loggerContext) {
+  }
+
+  @Override
+  public void onReset(LoggerContext loggerContext) {
+    stop();
+  }
+
+  @Override
+  public void onStop(LoggerContext loggerContext) {
+    stop();
+  }
+
+  @Override
+  public void onLevelChange(ch.qos.logback.classic.Logger logger, Level level) {
+  }
+
+  /**
+   * 发送方 (appender)
+   */
+  public interface Sender {
+
+    /**
+     * 发送一个数据包
+     *
+     * @return 是否仍有待发送数据
+     */
+    boolean sendOnce();
+
+    /**
+     * @return 发送周期 (秒)
+     */
+    int getSendInterval();
+  }
+
+  /**
+   * 注册信息,保证同一发送方同一时刻最多只有一个发送任务
+   */
+  public final class Registration {
+
+    private final Sender sender;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 发送任务执行期间收到的请求,任务结束前再执行一轮
+     */
+    private volatile boolean requested;
+
+    private volatile boolean cancelled;
+
+    /**
+     * 正在执行发送任务的线程
+     */
+    private volatile Thread drainThread;
+
+    private Registration(Sender sender) {
+      this.sender = sender;
+    }
+
+    /**
+     * 请求异步发送,已有发送任务时由该任务在结束前再执行一轮
+     *
+     * @return 是否已提交或由正在执行的任务接手,已注销或 hub 已停止时为 false
+     */
+    public boolean trigger() {
+      if (cancelled || !started) {
+        return false;
+      }
+      requested = true;
+      if (running.compareAndSet(false, true)) {
+        submit();
+      }
+      return true;
+    }
+
+    private void submit() {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        running.set(false);
+      }
+    }
+
+    /**
+     * 注销后独占发送方 : 等待正在执行的发送任务结束,已排队的任务不再发送,之后调用方可以直接调用 sendOnce,
+     * 结束后调用 {@link #releaseExclusive()}
+     * <p>
+     * 必须在 {@link #unregister(Registration)} 之后调用;在发送任务自身中调用时 (如发送时停止) 直接返回 true
+     *
+     * @param timeoutMillis 最长等待时间
+     * @return 是否已独占,超时或被中断时为 false
+     */
+    public boolean awaitExclusive(long timeoutMillis) {
+      if (drainThread == Thread.currentThread()) {
+        return true;
+      }
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (!running.compareAndSet(false, true)) {
+        if (System.currentTimeMillis() >= deadline) {
+          return false;
+        }
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * 结束 {@link #awaitExclusive(long)} 取得的独占 (已注销,不会再被调度)
+     */
+    public void releaseExclusive() {
+      if (drainThread != Thread.currentThread()) {
+        running.set(false);
+      }
+    }
+
+    private void drain() {
+      if (cancelled) {
+        // 注销前已排队的任务
+        running.set(false);
+        return;
+      }
+      drainThread = Thread.currentThread();
+      requested = false;
+      boolean more = false;
+      try {
+        more = sender.sendOnce();
+      } catch (Exception e) {
+        consoleLog.log("发送失败 : ".concat(String.valueOf(e.getMessage())));
+      } finally {
+        drainThread = null;
+        // Error 向上抛出时同样释放,否则该发送方不会再被调度
+        if (more && !cancelled && started) {
+          // 重新排队,让其他发送方的任务先执行
+          submit();
+        } else {
+          running.set(false);
+          // 本轮发送期间收到的请求 (如 flush) 不丢失
+          if (requested && !cancelled && started && running.compareAndSet(false, true)) {
+            submit();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.sevlow.cls.logback;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import java.io.IOException;
+import java.util.Arrays;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * 序列化与 lz4 压缩缓冲区,按发送线程复用
+ * <p>
+ * 超过 MAX_RETAINED_BYTES 的缓冲区用完即弃,避免长期占用内存
+ *
+ * @author einsitang
+ */
+public class CompressBuffers {
+
+  // 单个缓冲区最大保留 1MB
+  private static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+  private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+
+  private final ThreadLocal<byte[]> rawBuffers = new ThreadLocal<>();
+
+  private final ThreadLocal<byte[]> compressedBuffers = new ThreadLocal<>();
+
+  /**
+   * 序列化并压缩
+   *
+   * @param message protobuf 消息
+   * @return 压缩后数据
+   * @throws IOException 序列化异常
+   */
+  public byte[] lz4(MessageLite message) throws IOException {
+    int size = message.getSerializedSize();
+    byte[] raw = buffer(rawBuffers, size);
+    CodedOutputStream output = CodedOutputStream.newInstance(raw, 0, size);
+    message.writeTo(output);
+    output.checkNoSpaceLeft();
+    return lz4(raw, 0, size);
+  }
+
+  /**
+   * 压缩
+   *
+   * @param data   原始数据
+   * @param offset 起始位置
+   * @param length 长度
+   * @return 压缩后数据
+   */
+  public byte[] lz4(byte[] data, int offset, int length) {
+    int maxCompressedLength = COMPRESSOR.maxCompressedLength(length);
+    byte[] compressed = buffer(compressedBuffers, maxCompressedLength);
+    int compressedLength = COMPRESSOR
+        .compress(data, offset, length, compressed, 0, maxCompressedLength);
+    return Arrays.copyOf(compressed, compressedLength);
+  }
+
+  private static byte[] buffer(ThreadLocal<byte[]> buffers, int size) {
+    byte[] buffer = buffers.get();
+    if (buffer != null && buffer.length >= size) {
+      return buffer;
+    }
+    buffer = new byte[size];
+    if (size <= MAX_RETAINED_BYTES) {
+      buffers.set(buffer);
+    }
+    return buffer;
+  }
+}
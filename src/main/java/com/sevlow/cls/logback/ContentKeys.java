@@ -0,0 +1,40 @@
+package com.sevlow.cls.logback;
+
+import com.google.protobuf.ByteString;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLS 字段名缓存,字段名只进行一次 UTF-8 编码
+ * <p>
+ * 最多缓存 MAX_CACHED_KEYS 个字段名,防止动态字段名导致缓存无限增长
+ *
+ * @author einsitang
+ */
+public final class ContentKeys {
+
+  private static final int MAX_CACHED_KEYS = 4096;
+
+  private static final ConcurrentHashMap<String, ByteString> KEYS = new ConcurrentHashMap<>();
+
+  private ContentKeys() {
+  }
+
+  /**
+   * @param key 字段名
+   * @return 编码后的字段名
+   */
+  public static ByteString of(String key) {
+    ByteString encoded = KEYS.get(key);
+    if (encoded != null) {
+      return encoded;
+    }
+    encoded = ByteString.copyFromUtf8(key);
+    if (KEYS.size() < MAX_CACHED_KEYS) {
+      ByteString previous = KEYS.putIfAbsent(key, encoded);
+      if (previous != null) {
+        return previous;
+      }
+    }
+    return encoded;
+  }
+}
@@ -0,0 +1,93 @@
+package com.sevlow.cls.logback;
+
+import com.google.common.collect.ImmutableSet;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Set;
+import java.util.UUID;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * 延迟格式化
+ * <p>
+ * 采集阶段只保存 message pattern 与参数快照,在发送线程中再进行 {} 替换
+ * <p>
+ * 只有全部参数均为已知不可变的 JDK 类型时才允许延迟,否则退回到采集阶段立即格式化
+ * <p>
+ * 应用自定义的类型 (包括枚举) 可能带有可变字段或依赖上下文的 toString,一律立即格式化
+ *
+ * @author einsitang
+ */
+public final class DeferredMessage {
+
+  /**
+   * 非字符串参数的估算字节数,覆盖带时区的日期时间等最长的不可变类型
+   */
+  private static final int ARGUMENT_ESTIMATE = 64;
+
+  private static final Set<Class<?>> IMMUTABLE_TYPES = ImmutableSet.<Class<?>>builder()
+      .add(String.class, Boolean.class, Character.class)
+      .add(Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class)
+      .add(BigInteger.class, BigDecimal.class, UUID.class)
+      .add(java.time.Instant.class, java.time.LocalDate.class, java.time.LocalTime.class,
+          java.time.LocalDateTime.class, java.time.OffsetDateTime.class,
+          java.time.ZonedDateTime.class, java.time.Duration.class)
+      .build();
+
+  private DeferredMessage() {
+  }
+
+  /**
+   * 参数是否均为已知不可变的 JDK 类型 (null 视为不可变)
+   *
+   * @param arguments 参数
+   * @return 是否可以延迟格式化
+   */
+  public static boolean isDeferrable(Object[] arguments) {
+    for (Object argument : arguments) {
+      if (argument != null && !IMMUTABLE_TYPES.contains(argument.getClass())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 参数快照,防止调用方复用参数数组
+   *
+   * @param arguments 参数
+   * @return 快照
+   */
+  public static Object[] snapshot(Object[] arguments) {
+    return arguments.clone();
+  }
+
+  /**
+   * 估算格式化后的 UTF-8 字节数 (上限,不扫描字符)
+   *
+   * @param pattern   message pattern
+   * @param arguments 参数
+   * @return 估算字节数
+   */
+  public static int estimate(String pattern, Object[] arguments) {
+    int size = LogSizes.upperBound(pattern);
+    if (arguments != null) {
+      for (Object argument : arguments) {
+        size += argument instanceof String ? LogSizes.upperBound((String) argument)
+            : ARGUMENT_ESTIMATE;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * 格式化
+   *
+   * @param pattern   message pattern
+   * @param arguments 参数
+   * @return 格式化结果
+   */
+  public static String format(String pattern, Object[] arguments) {
+    return MessageFormatter.arrayFormat(pattern, arguments).getMessage();
+  }
+}
@@ -0,0 +1,103 @@
+package com.sevlow.cls.logback;
+
+/**
+ * 单个数据包的上传结果,拆分重发的数据包汇总为一个结果
+ *
+ * @author einsitang
+ */
+public final class DeliveryResult {
+
+  private final Status status;
+
+  private final int deliveredLogs;
+
+  private final int rejectedLogs;
+
+  private final long bytes;
+
+  private final long latencyMillis;
+
+  private final int attempts;
+
+  DeliveryResult(int deliveredLogs, int rejectedLogs, long bytes, long latencyMillis,
+      int attempts) {
+    this.status = rejectedLogs == 0 ? Status.DELIVERED
+        : deliveredLogs == 0 ? Status.REJECTED : Status.PARTIAL;
+    this.deliveredLogs = deliveredLogs;
+    this.rejectedLogs = rejectedLogs;
+    this.bytes = bytes;
+    this.latencyMillis = latencyMillis;
+    this.attempts = attempts;
+  }
+
+  /**
+   * 未发出请求即放弃 (构建数据包失败);没有取出日志时为 0 条的空结果
+   *
+   * @param rejectedLogs 放弃的日志数
+   * @return 上传结果
+   */
+  static DeliveryResult rejected(int rejectedLogs) {
+    return new DeliveryResult(0, rejectedLogs, 0, 0, 0);
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return 送达的日志数
+   */
+  public int getDeliveredLogs() {
+    return deliveredLogs;
+  }
+
+  /**
+   * @return 放弃的日志数 (被拒绝、重试耗尽或已停止上报)
+   */
+  public int getRejectedLogs() {
+    return rejectedLogs;
+  }
+
+  /**
+   * @return 送达部分的请求体字节数 (压缩后)
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return 从提交到完成的耗时 (毫秒),包括重试与限流退避
+   */
+  public long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * @return 发出的请求数,包括重试与拆分后的请求
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  @Override
+  public String toString() {
+    return "DeliveryResult{status=" + status + ", delivered=" + deliveredLogs + ", rejected="
+        + rejectedLogs + ", bytes=" + bytes + ", latency=" + latencyMillis + "ms, attempts="
+        + attempts + '}';
+  }
+
+  public enum Status {
+    /**
+     * 全部送达
+     */
+    DELIVERED,
+    /**
+     * 拆分重发后部分送达
+     */
+    PARTIAL,
+    /**
+     * 全部放弃
+     */
+    REJECTED
+  }
+}
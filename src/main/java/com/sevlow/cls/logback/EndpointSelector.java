@@ -0,0 +1,173 @@
+package com.sevlow.cls.logback;
+
+import com.sevlow.cls.ConsoleLog;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 上报地址自动选择
+ * <p>
+ * 依次探测候选地址 (内网 / 外网),选择延迟最低的可用地址;当前地址不可用或上报失败时立即重新探测
+ * <p>
+ * 为避免频繁切换,只有新地址比当前地址快 SWITCH_MARGIN_PERCENT 以上时才切换
+ *
+ * @author einsitang
+ */
+public class EndpointSelector {
+
+  /**
+   * 探测路径,任意 http 响应 (包括 4xx) 均视为可用
+   */
+  private static final String PROBE_PATH = "/structuredlog";
+
+  // 每个地址探测 2 次取最小值
+  private static final int PROBE_ATTEMPTS = 2;
+
+  // 新地址快 20% 以上才切换
+  private static final int SWITCH_MARGIN_PERCENT = 20;
+
+  // 上报失败触发重新探测的最小间隔
+  private static final long MIN_REPROBE_MILLIS = 5_000;
+
+  private static final long UNREACHABLE = Long.MAX_VALUE;
+
+  private final List<String> candidates;
+
+  private final OkHttpClient probeClient;
+
+  private final Executor executor;
+
+  private final ConsoleLog consoleLog;
+
+  private final AtomicBoolean probing = new AtomicBoolean();
+
+  private volatile String current;
+
+  private volatile long currentLatency = UNREACHABLE;
+
+  private volatile long lastProbeMillis;
+
+  private volatile Map<String, Long> latencies = Collections.emptyMap();
+
+  /**
+   * @param candidates    候选地址,第一个为探测完成前的默认地址
+   * @param httpClient    http 连接,探测使用其副本并设置较短超时
+   * @param timeoutMillis 探测超时 (毫秒)
+   * @param executor      异步探测线程
+   * @param consoleLog    调试输出
+   */
+  public EndpointSelector(List<String> candidates, OkHttpClient httpClient, long timeoutMillis,
+      Executor executor, ConsoleLog consoleLog) {
+    this.candidates = new ArrayList<>(candidates);
+    this.current = this.candidates.get(0);
+    this.probeClient = httpClient.clone();
+    this.probeClient.setConnectTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    this.probeClient.setReadTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    this.executor = executor;
+    this.consoleLog = consoleLog;
+  }
+
+  /**
+   * @return 当前上报地址
+   */
+  public String current() {
+    return current;
+  }
+
+  /**
+   * @return 最近一次探测各地址的延迟 (毫秒),不可用为 Long.MAX_VALUE
+   */
+  public Map<String, Long> getLatencies() {
+    return latencies;
+  }
+
+  /**
+   * 上报失败,异步重新探测
+   */
+  public void reportFailure() {
+    if (System.currentTimeMillis() - lastProbeMillis < MIN_REPROBE_MILLIS) {
+      return;
+    }
+    try {
+      executor.execute(this::probe);
+    } catch (RejectedExecutionException e) {
+      // 已停止
+    }
+  }
+
+  /**
+   * 探测全部候选地址并选择 (同步执行,同一时刻只有一个探测)
+   */
+  public void probe() {
+    if (!probing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      lastProbeMillis = System.currentTimeMillis();
+      Map<String, Long> results = new LinkedHashMap<>();
+      String best = null;
+      long bestLatency = UNREACHABLE;
+      for (String candidate : candidates) {
+        long latency = probe(candidate);
+        results.put(candidate, latency);
+        if (latency < bestLatency) {
+          best = candidate;
+          bestLatency = latency;
+        }
+      }
+      latencies = Collections.unmodifiableMap(results);
+      select(best, bestLatency, results.get(current));
+    } finally {
+      probing.set(false);
+    }
+  }
+
+  private void select(String best, long bestLatency, long latencyOfCurrent) {
+    if (best == null) {
+      consoleLog.log("全部上报地址均不可用 : ".concat(latencies.toString()));
+      currentLatency = UNREACHABLE;
+      return;
+    }
+    boolean switchable = latencyOfCurrent == UNREACHABLE
+        || bestLatency * 100 < latencyOfCurrent * (100 - SWITCH_MARGIN_PERCENT);
+    if (!best.equals(current) && switchable) {
+      consoleLog.log("切换上报地址 : " + current + " -> " + best + " " + latencies);
+      current = best;
+      currentLatency = bestLatency;
+    } else {
+      currentLatency = latencyOfCurrent;
+    }
+  }
+
+  private long probe(String candidate) {
+    long latency = UNREACHABLE;
+    for (int i = 0; i < PROBE_ATTEMPTS; i++) {
+      Request request = new Request.Builder().url(candidate.concat(PROBE_PATH)).get().build();
+      long start = System.nanoTime();
+      try {
+        Response response = probeClient.newCall(request).execute();
+        response.body().close();
+        latency = Math.min(latency, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      } catch (IOException | RuntimeException e) {
+        consoleLog.log("探测失败 " + candidate + " : " + e.getMessage());
+        return UNREACHABLE;
+      }
+    }
+    return latency;
+  }
+
+  public long getCurrentLatency() {
+    return currentLatency;
+  }
+}
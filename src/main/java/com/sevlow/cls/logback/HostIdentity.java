@@ -0,0 +1,175 @@
+package com.sevlow.cls.logback;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 本机标识 (ip / hostname)
+ * <p>
+ * InetAddress.getLocalHost() 在解析配置异常的机器上可能阻塞数秒,因此每个 JVM 只在后台线程解析一次,
+ * 各 appender 共享结果;解析完成前使用不依赖 DNS 的备用值
+ *
+ * @author einsitang
+ */
+public final class HostIdentity {
+
+  private static final CompletableFuture<HostIdentity> RESOLVED = new CompletableFuture<>();
+
+  private static volatile boolean resolving;
+
+  private static volatile HostIdentity fallback;
+
+  private final String ip;
+
+  private final String hostname;
+
+  private final String source;
+
+  private HostIdentity(String ip, String hostname) {
+    this.ip = ip;
+    this.hostname = hostname;
+    this.source = hostname.concat("(".concat(ip).concat(")"));
+  }
+
+  /**
+   * @param ip       ip
+   * @param hostname 主机名
+   * @return 本机标识
+   */
+  public static HostIdentity of(String ip, String hostname) {
+    return new HostIdentity(ip, hostname);
+  }
+
+  /**
+   * 后台解析本机标识,多次调用只解析一次
+   *
+   * @return 解析结果
+   */
+  public static CompletableFuture<HostIdentity> resolve() {
+    if (!resolving) {
+      synchronized (HostIdentity.class) {
+        if (!resolving) {
+          resolving = true;
+          Thread thread = new Thread(HostIdentity::doResolve, "cls-host-identity");
+          thread.setDaemon(true);
+          thread.start();
+        }
+      }
+    }
+    return RESOLVED;
+  }
+
+  private static void doResolve() {
+    try {
+      InetAddress address = InetAddress.getLocalHost();
+      RESOLVED.complete(new HostIdentity(address.getHostAddress(), address.getHostName()));
+    } catch (Exception e) {
+      RESOLVED.complete(fallback());
+    }
+  }
+
+  /**
+   * 不依赖 DNS 的备用值 : 第一个非回环 IPv4 地址与环境变量中的主机名
+   *
+   * @return 备用标识
+   */
+  public static HostIdentity fallback() {
+    HostIdentity identity = fallback;
+    if (identity == null) {
+      String hostname = System.getenv("HOSTNAME");
+      if (hostname == null) {
+        hostname = System.getenv("COMPUTERNAME");
+      }
+      identity = new HostIdentity(firstAddress(), hostname == null ? "" : hostname);
+      fallback = identity;
+    }
+    return identity;
+  }
+
+  private static String firstAddress() {
+    try {
+      Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+      while (interfaces != null && interfaces.hasMoreElements()) {
+        NetworkInterface networkInterface = interfaces.nextElement();
+        if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+          continue;
+        }
+        Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+        while (addresses.hasMoreElements()) {
+          InetAddress address = addresses.nextElement();
+          if (address instanceof Inet4Address && !address.isLoopbackAddress()) {
+            return address.getHostAddress();
+          }
+        }
+      }
+    } catch (SocketException e) {
+      // ignore
+    }
+    return "";
+  }
+
+  public String getIp() {
+    return ip;
+  }
+
+  public String getHostname() {
+    return hostname;
+  }
+
+  /**
+   * @return hostname(ip)
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * 读取后台解析结果 : 截止时间前阻塞等待,之后只取已完成的结果;解析完成后缓存并一直使用
+   */
+  public static final class Lookup {
+
+    private final CompletableFuture<HostIdentity> future;
+
+    private final long deadline;
+
+    private volatile HostIdentity resolved;
+
+    /**
+     * @param future        解析结果
+     * @param timeoutMillis 从创建起最多等待的时间
+     */
+    public Lookup(CompletableFuture<HostIdentity> future, long timeoutMillis) {
+      this.future = future;
+      this.deadline = System.currentTimeMillis() + timeoutMillis;
+    }
+
+    /**
+     * @return 解析结果,超时未完成或解析失败时为 null (调用方使用备用值,不缓存)
+     */
+    public HostIdentity get() {
+      HostIdentity identity = resolved;
+      if (identity != null) {
+        return identity;
+      }
+      try {
+        long wait = deadline - System.currentTimeMillis();
+        identity = wait > 0 ? future.get(wait, TimeUnit.MILLISECONDS) : future.getNow(null);
+      } catch (TimeoutException | ExecutionException | CancellationException e) {
+        return null;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      resolved = identity;
+      return identity;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.sevlow.cls.logback;
+
+import java.io.Serializable;
+
+/**
+ * 结构化字段,作为日志参数时直接上报为独立的 CLS 字段
+ * <p>
+ * 用法 : log.info("order {} created", kv("orderId", orderId));
+ * <p>
+ * 格式化后的信息中呈现为 key=value
+ *
+ * @author einsitang
+ */
+public final class KeyValue implements Serializable {
+
+  private static final long serialVersionUID = 3386356524453396853L;
+
+  private final String key;
+
+  private final Object value;
+
+  private KeyValue(String key, Object value) {
+    this.key = key;
+    this.value = value;
+  }
+
+  public static KeyValue kv(String key, Object value) {
+    return new KeyValue(key, value);
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return key + "=" + value;
+  }
+}
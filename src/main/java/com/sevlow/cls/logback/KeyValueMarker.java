@@ -0,0 +1,110 @@
+package com.sevlow.cls.logback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Marker;
+
+/**
+ * 携带结构化字段的 Marker,字段直接上报为独立的 CLS 字段,不出现在格式化信息中
+ * <p>
+ * 用法 : log.info(KeyValueMarker.of(kv("orderId", orderId)), "order created");
+ *
+ * @author einsitang
+ */
+public final class KeyValueMarker implements Marker {
+
+  private static final long serialVersionUID = -3024306931556370455L;
+
+  private static final String NAME = "CLS_FIELDS";
+
+  private final List<KeyValue> keyValues;
+
+  private final List<Marker> references = new CopyOnWriteArrayList<>();
+
+  private KeyValueMarker(List<KeyValue> keyValues) {
+    this.keyValues = Collections.unmodifiableList(keyValues);
+  }
+
+  public static KeyValueMarker of(KeyValue... keyValues) {
+    return new KeyValueMarker(new ArrayList<>(Arrays.asList(keyValues)));
+  }
+
+  public static KeyValueMarker of(Map<String, ?> fields) {
+    List<KeyValue> keyValues = new ArrayList<>(fields.size());
+    fields.forEach((key, value) -> keyValues.add(KeyValue.kv(key, value)));
+    return new KeyValueMarker(keyValues);
+  }
+
+  public List<KeyValue> getKeyValues() {
+    return keyValues;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void add(Marker reference) {
+    if (reference != null && !contains(reference)) {
+      references.add(reference);
+    }
+  }
+
+  @Override
+  public boolean remove(Marker reference) {
+    return references.remove(reference);
+  }
+
+  @Override
+  @Deprecated
+  public boolean hasChildren() {
+    return hasReferences();
+  }
+
+  @Override
+  public boolean hasReferences() {
+    return !references.isEmpty();
+  }
+
+  @Override
+  public Iterator<Marker> iterator() {
+    return references.iterator();
+  }
+
+  @Override
+  public boolean contains(Marker other) {
+    if (this.equals(other)) {
+      return true;
+    }
+    for (Marker reference : references) {
+      if (reference.contains(other)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean contains(String name) {
+    if (NAME.equals(name)) {
+      return true;
+    }
+    for (Marker reference : references) {
+      if (reference.contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return NAME + keyValues;
+  }
+}
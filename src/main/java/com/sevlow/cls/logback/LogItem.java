@@ -21,6 +21,9 @@ public class LogItem implements Serializable {
   public static final String FIELD_THROWABLE = "throwable";
   public static final String FIELD_IP = "ip";
   public static final String FIELD_HOSTNAME = "hostname";
+  public static final String FIELD_CHUNK_ID = "chunkId";
+  public static final String FIELD_CHUNK_INDEX = "chunkIndex";
+  public static final String FIELD_CHUNK_COUNT = "chunkCount";
 
   private Long time;
   private String datetime;
@@ -34,4 +37,31 @@ public class LogItem implements Serializable {
   private String hostname;
   private Map<String, String> mdcFields = Maps.newHashMap();
 
+  /**
+   * 从日志参数与 Marker 中提取的结构化字段,没有时为 null
+   */
+  private Map<String, String> structuredFields;
+
+  /**
+   * 延迟格式化时的参数快照,此时 message 为 pattern,formattedMessage 为 null
+   */
+  private Object[] arguments;
+
+  /**
+   * 超大日志拆分后的关联ID,未拆分为 null
+   */
+  private String chunkId;
+  private int chunkIndex;
+  private int chunkCount;
+
+  /**
+   * 采集时估算的日志大小 (字节)
+   */
+  private int estimatedBytes;
+
+  /**
+   * formattedMessage 与 throwable 已在拆分或截断前整体脱敏,发送时不再处理
+   */
+  private boolean masked;
+
 }
@@ -0,0 +1,199 @@
+package com.sevlow.cls.logback;
+
+import java.util.Map;
+
+/**
+ * 日志大小估算工具
+ * <p>
+ * 采集阶段只做廉价估算 (字符数 × 3,UTF-8 字节数的上限),只有上限超过调用方的限制时才逐字符计算 UTF-8 字节数,
+ * 与 {@link #fits(String, int)} 相同
+ *
+ * @author einsitang
+ */
+public final class LogSizes {
+
+  /**
+   * 每个字段的固定开销估算 (protobuf tag/length + key)
+   */
+  public static final int FIELD_OVERHEAD = 24;
+
+  /**
+   * 每条日志的固定开销估算
+   */
+  public static final int EVENT_OVERHEAD = 64;
+
+  /**
+   * 单个字符 UTF-8 编码的最大字节数 (BMP 范围内)
+   */
+  private static final int MAX_BYTES_PER_CHAR = 3;
+
+  private LogSizes() {
+  }
+
+  /**
+   * 快速估算字段大小,按 UTF-8 字节数的上限计算
+   *
+   * @param value 字段值
+   * @return 估算字节数
+   */
+  public static int estimate(String value) {
+    return value == null ? 0 : upperBound(value) + FIELD_OVERHEAD;
+  }
+
+  /**
+   * 快速估算整条日志大小 (UTF-8 字节数的上限)
+   *
+   * @param logItem 日志
+   * @return 估算字节数
+   */
+  public static int estimate(LogItem logItem) {
+    return size(logItem, false);
+  }
+
+  /**
+   * 估算整条日志大小,上限超过 maxBytes 时改为精确计算,使与 maxBytes 的比较结果准确
+   *
+   * @param logItem  日志
+   * @param maxBytes 调用方的字节数限制
+   * @return 估算字节数
+   */
+  public static int estimate(LogItem logItem, int maxBytes) {
+    int size = size(logItem, false);
+    return size <= maxBytes ? size : size(logItem, true);
+  }
+
+  /**
+   * 精确计算整条日志的 UTF-8 字节数 (未格式化的 message 仍为估算值)
+   *
+   * @param logItem 日志
+   * @return 字节数
+   */
+  public static int measure(LogItem logItem) {
+    return size(logItem, true);
+  }
+
+  private static int size(LogItem logItem, boolean exact) {
+    int size = EVENT_OVERHEAD;
+    size += size(logItem.getDatetime(), exact);
+    size += size(logItem.getLevel(), exact);
+    size += size(logItem.getLoggerName(), exact);
+    size += size(logItem.getThreadName(), exact);
+    if (logItem.getFormattedMessage() == null && logItem.getMessage() != null) {
+      size += DeferredMessage.estimate(logItem.getMessage(), logItem.getArguments())
+          + FIELD_OVERHEAD;
+    } else {
+      size += size(logItem.getFormattedMessage(), exact);
+    }
+    size += size(logItem.getThrowable(), exact);
+    size += size(logItem.getIp(), exact);
+    size += size(logItem.getHostname(), exact);
+    for (Map.Entry<String, String> entry : logItem.getMdcFields().entrySet()) {
+      size += size(entry.getKey(), exact) + size(entry.getValue(), exact);
+    }
+    if (logItem.getStructuredFields() != null) {
+      for (Map.Entry<String, String> entry : logItem.getStructuredFields().entrySet()) {
+        size += size(entry.getKey(), exact) + size(entry.getValue(), exact);
+      }
+    }
+    return size;
+  }
+
+  private static int size(String value, boolean exact) {
+    if (value == null) {
+      return 0;
+    }
+    return (exact ? utf8Length(value) : upperBound(value)) + FIELD_OVERHEAD;
+  }
+
+  /**
+   * @return UTF-8 字节数的上限 (不扫描字符)
+   */
+  static int upperBound(String value) {
+    return value == null ? 0 : value.length() * MAX_BYTES_PER_CHAR;
+  }
+
+  /**
+   * 判断字段的 UTF-8 字节数是否不超过上限,大多数情况下无需逐字符扫描
+   *
+   * @param value    字段值
+   * @param maxBytes 上限
+   * @return 是否不超过上限
+   */
+  public static boolean fits(String value, int maxBytes) {
+    if (value == null) {
+      return true;
+    }
+    int length = value.length();
+    if ((long) length * MAX_BYTES_PER_CHAR <= maxBytes) {
+      return true;
+    }
+    if (length > maxBytes) {
+      return false;
+    }
+    return utf8Length(value) <= maxBytes;
+  }
+
+  /**
+   * 计算 UTF-8 编码字节数 (不产生临时对象)
+   *
+   * @param value 字段值
+   * @return UTF-8 字节数
+   */
+  public static int utf8Length(String value) {
+    if (value == null) {
+      return 0;
+    }
+    int bytes = 0;
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        bytes += 1;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * 从 begin 开始,计算不超过 maxBytes 个 UTF-8 字节的最长子串结束位置,不会拆开代理对
+   *
+   * @param value    字段值
+   * @param begin    起始位置
+   * @param maxBytes 字节上限
+   * @return 结束位置 (不包含)
+   */
+  public static int utf8Boundary(String value, int begin, int maxBytes) {
+    int bytes = 0;
+    int i = begin;
+    int length = value.length();
+    while (i < length) {
+      char c = value.charAt(i);
+      int charBytes;
+      int charCount = 1;
+      if (c < 0x80) {
+        charBytes = 1;
+      } else if (c < 0x800) {
+        charBytes = 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        charBytes = 4;
+        charCount = 2;
+      } else {
+        charBytes = 3;
+      }
+      if (bytes + charBytes > maxBytes) {
+        break;
+      }
+      bytes += charBytes;
+      i += charCount;
+    }
+    return i;
+  }
+}
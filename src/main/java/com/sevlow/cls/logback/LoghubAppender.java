@@ -11,21 +11,34 @@ import cls.Cls.Log.Content;
 import cls.Cls.LogGroup;
 import cls.Cls.LogGroupList;
 import com.google.common.collect.Queues;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.sevlow.cls.ConsoleLog;
 import com.sevlow.cls.config.ClsConfig;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import org.joda.time.DateTime;
@@ -41,36 +54,47 @@ import org.joda.time.format.DateTimeFormatter;
  * <p>
  * 周期 3 秒 必然触发发送任务
  * <p>
- * 最大日志缓存数据 2w 条,超过则扔掉旧数据
+ * 缓存日志内存预算默认 32MB (按估算字节数),超过水位线后依次 采样 / 丢弃低级别日志 / 丢弃全部新日志
  * <p>
- * 并发线程 3 条
+ * 并发线程 4 条,可通过 hub 属性引用共享的 {@link ClsHub},多个 appender 共享发送线程、连接与内存预算
+ * <p>
+ * 单个字段上限 64KB,单条日志上限 512KB,超出则截断或拆分;单次发送数据包上限 3MB
  *
  * @param <E> EventObject
  * @author einsitang
  */
 @EqualsAndHashCode(callSuper = true)
 @Data
-public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
+public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> implements ClsHub.Sender {
 
   private static final String CLASS_NAME = LoghubAppender.class.getName();
 
-  private static String CONTEXT_FLOW_PREFIX = UUID.randomUUID().toString().replace("-", "");
-
-  private static LongAdder GLOBAL_COUNTER = new LongAdder();
-
-  private static LongAdder CONTEXT_FLOW = new LongAdder();
-
   // 发送任务重试最大重试 3 次
   private static int MAX_SEND_RETRIES = 3;
 
+  // 重试次数上限 10 次
+  private static int MAX_SEND_RETRIES_LIMIT = 10;
+
   //单次发送任务数据包（logs）最低 3000 条
   private static int MIN_SEND_PACK_LOGS = 3_000;
 
   //单次发送任务数据包（logs）最高 8000 条
   private static int MAX_SEND_PACK_LOGS = 8_000;
 
-  // 最大缓存数据包 2w 条
-  private static int MAX_CACHE_PACK_LOGS = 20_000;
+  // 缓存日志默认内存预算 32MB
+  private static long DEFAULT_MAX_BUFFER_BYTES = 32L * 1024 * 1024;
+
+  // 缓存日志最小内存预算 4MB
+  private static long MIN_BUFFER_BYTES = 4L * 1024 * 1024;
+
+  // 默认 60% 水位开始采样低级别日志
+  private static int DEFAULT_SAMPLE_WATERMARK = 60;
+
+  // 默认 80% 水位开始丢弃低级别日志
+  private static int DEFAULT_DROP_WATERMARK = 80;
+
+  // 默认采样阶段每 10 条保留 1 条
+  private static int DEFAULT_SAMPLE_RATE = 10;
 
   // 最小触发周期任务
   private static int MIN_SEND_INTERVAL = 1;
@@ -78,9 +102,54 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
   // 最小触发周期任务
   private static int MAX_SEND_INTERVAL = 5;
 
-  // 并发任务数
+  // 并发任务数 (未引用共享 hub 时)
   private static int CONCURRENT_THREAD_TASKS = 4;
 
+  // 并发任务数上限
+  private static int MAX_CONCURRENT_THREAD_TASKS = 64;
+
+  // 单个字段默认上限 64KB
+  private static int DEFAULT_MAX_FIELD_BYTES = 64 * 1024;
+
+  // 单个字段最小上限 1KB
+  private static int MIN_FIELD_BYTES = 1024;
+
+  // 单条日志默认上限 512KB
+  private static int DEFAULT_MAX_EVENT_BYTES = 512 * 1024;
+
+  // 单条日志最大上限 1MB (CLS 限制)
+  private static int MAX_EVENT_BYTES = 1024 * 1024;
+
+  // 单次发送数据包默认上限 3MB
+  private static int DEFAULT_MAX_BATCH_BYTES = 3 * 1024 * 1024;
+
+  // 单次发送数据包最大上限 4MB (CLS 限制 5MB, 预留余量)
+  private static int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+  // 超大日志最多拆分 16 条
+  private static int MAX_CHUNKS = 16;
+
+  // 默认每 60 秒重新探测上报地址
+  private static int DEFAULT_ENDPOINT_PROBE_INTERVAL = 60;
+
+  // 熔断探测请求最多 10 条日志
+  private static int PROBE_PACK_LOGS = 10;
+
+  // 本机标识解析最多等待 3 秒 (从 start 开始计算)
+  private static long HOST_RESOLVE_TIMEOUT_MILLIS = 3_000;
+
+  // 分段缓存最多 256 段
+  private static int MAX_CAPTURE_STRIPES = 256;
+
+  // 积压并行发送最多 64 个线程
+  private static int MAX_DRAIN_PARALLELISM = 64;
+
+  // 停止时最多等待 300 秒
+  private static int MAX_SHUTDOWN_TIMEOUT = 300;
+
+  // 停止时等待 hub 中正在执行的发送任务最多 10 秒
+  private static long STOP_DRAIN_WAIT_MILLIS = 10_000;
+
   private String topicId;
 
   private String region;
@@ -91,24 +160,157 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
 
   private String mdcFields;
 
+  /**
+   * 引用的共享 hub 名称,为空则使用独立的 hub
+   */
+  private String hub;
+
   private String debug;
+  /**
+   * 是否注册 JMX 管理接口 {@link LoghubAppenderMBean},用于运行时调整发送参数
+   */
+  private String jmx;
+  /**
+   * 是否延迟到发送线程格式化 message
+   */
+  private String deferFormatting;
+  /**
+   * 是否将日志参数与 Marker 中的 key/value 提取为独立字段 (默认 false)
+   */
+  private String structuredArguments;
+  /**
+   * 脱敏规则,在发送线程中对 formattedMessage 与 throwable 脱敏
+   */
+  private List<MaskRule> masks = new ArrayList<>();
+  /**
+   * 是否腾讯云内网上报 : true / false / auto (自动探测选择延迟最低的地址)
+   */
   private String isInternal;
+  /**
+   * auto 模式下重新探测上报地址的周期 (秒)
+   */
+  private int endpointProbeInterval = DEFAULT_ENDPOINT_PROBE_INTERVAL;
+  /**
+   * 自定义上报地址,为空则根据 region 与 isInternal 生成
+   */
+  private String endpoint;
   private String source;
   private String hostname;
   private String ip;
 
-  private int sendInterval = MIN_SEND_INTERVAL;
-  private int sendPackLogs = MIN_SEND_PACK_LOGS;
+  private volatile int sendInterval = MIN_SEND_INTERVAL;
+  private volatile int sendPackLogs = MIN_SEND_PACK_LOGS;
+
+  private int maxSendRetries = MAX_SEND_RETRIES;
+  /**
+   * 发送线程数 (未引用共享 hub 时)
+   */
+  private int concurrency = CONCURRENT_THREAD_TASKS;
+  /**
+   * 压缩方式 : lz4 (默认) / none
+   */
+  private String compressType;
+
+  private int maxFieldBytes = DEFAULT_MAX_FIELD_BYTES;
+  private int maxEventBytes = DEFAULT_MAX_EVENT_BYTES;
+  private volatile int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+  /**
+   * 超大日志处理策略 : truncate (默认) / chunk
+   */
+  private String oversizePolicy;
+
+  private long maxBufferBytes = DEFAULT_MAX_BUFFER_BYTES;
+  private int sampleWatermark = DEFAULT_SAMPLE_WATERMARK;
+  private int dropWatermark = DEFAULT_DROP_WATERMARK;
+  private int sampleRate = DEFAULT_SAMPLE_RATE;
+
+  /**
+   * 分段缓存段数,0 (默认) 为所有线程共用一个队列;高并发写入时可设置为不少于写日志的线程数
+   */
+  private int captureStripes;
+
+  /**
+   * 积压超过一个数据包时 (故障恢复、停止时) 并行编码与压缩的线程数,0 (默认) 为在发送线程中逐个处理
+   */
+  private int drainParallelism;
+
+  /**
+   * 堆外缓存容量 (字节),0 (默认) 为堆内缓存;开启后日志在采集时序列化写入预分配的直接内存,
+   * 缓存期间不占用堆内存 (不再使用 deferFormatting,captureStripes 为堆外缓存的分段数)
+   * <p>
+   * 堆外缓存只受该容量限制,不计入 hub 的堆内存预算
+   */
+  private long offHeapBufferBytes;
+
+  /**
+   * 熔断 : 连续失败次数阈值
+   */
+  private int circuitFailureThreshold = 5;
+  /**
+   * 熔断 : 最近 20 个请求的失败率阈值 (百分比)
+   */
+  private int circuitFailureRate = 50;
+  /**
+   * 熔断时间 (秒),到期后发送一个探测请求
+   */
+  private int circuitOpenSeconds = 10;
+  /**
+   * 停止时等待已发出的数据包送达的时间 (秒),0 (默认) 为不等待
+   */
+  private int shutdownTimeout;
+  /**
+   * 熔断期间的降级策略 : buffer 保留在缓存中 (受内存预算限制,默认) / drop 丢弃
+   */
+  private String degradePolicy;
 
   protected String timeZone = "UTC";
   protected String timeFormat = "yyyy-MM-dd'T'HH:mmZ";
   protected DateTimeFormatter formatter;
 
-  private ScheduledExecutorService timerExecutor;
-  private Producer producer;
+  private final String contextFlowPrefix = UUID.randomUUID().toString().replace("-", "");
+  private final LongAdder pendingLogs = new LongAdder();
+  /**
+   * 累计写入与取出 (发送或丢弃) 缓存的日志数,用于判断 flush 之前写入的日志是否均已取出
+   */
+  private final LongAdder enqueuedLogs = new LongAdder();
+  private final LongAdder dequeuedLogs = new LongAdder();
+  /**
+   * 已取出但尚未送达或放弃的数据包,取出日志前加入
+   */
+  private final Set<CompletableFuture<DeliveryResult>> inFlight = ConcurrentHashMap.newKeySet();
+  private final Queue<FlushWaiter> flushWaiters = Queues.newConcurrentLinkedQueue();
+  private final LongAdder contextFlow = new LongAdder();
+  private final LongAdder circuitDroppedLogs = new LongAdder();
+  private final LongAdder fatalDroppedLogs = new LongAdder();
+  private final AtomicBoolean fatalStopped = new AtomicBoolean();
+  private final LongAdder arenaDroppedLogs = new LongAdder();
+
+  private ClsHub clsHub;
+  private boolean privateHub;
+  private ClsHub.Registration registration;
+  private ScheduledFuture<?> endpointProbe;
+  private volatile Producer producer;
+  private HostIdentity.Lookup hostIdentityLookup;
+  private boolean hostIdentityWarned;
   private ConsoleLog consoleLog;
+  private StructuredFieldExtractor structuredFieldExtractor;
+  private SecretMasker secretMasker;
+  private OversizeHandler oversizeHandler;
+  private MemoryBudget memoryBudget;
 
   private Queue<LogItem> logItemList = Queues.newConcurrentLinkedQueue();
+  private StripedLogBuffer stripedBuffer;
+  private OffHeapLogArena arena;
+  private ForkJoinPool drainPool;
+  /**
+   * 分段模式下每个分段写入多少条才检查一次全局待发送数
+   */
+  private volatile int pendingCheckInterval = 1;
+  /**
+   * 发送线程使用的数据包上限,条数与字节数一起替换
+   */
+  private volatile BatchLimits batchLimits = new BatchLimits(sendPackLogs, maxBatchBytes);
+  private ObjectName objectName;
 
   private boolean isDebug() {
     if (debug == null) {
@@ -117,6 +319,26 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
     return "TRUE".equalsIgnoreCase(debug);
   }
 
+  private boolean isJmx() {
+    return "TRUE".equalsIgnoreCase(jmx);
+  }
+
+  private boolean isCompress() {
+    return !"NONE".equalsIgnoreCase(compressType);
+  }
+
+  private boolean isDropOnCircuitOpen() {
+    return "DROP".equalsIgnoreCase(degradePolicy);
+  }
+
+  private boolean isStructuredArguments() {
+    return "TRUE".equalsIgnoreCase(structuredArguments);
+  }
+
+  private boolean isDeferFormatting() {
+    return arena == null && "TRUE".equalsIgnoreCase(deferFormatting);
+  }
+
   @Override
   public void start() {
     try {
@@ -128,57 +350,220 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
 
   private void doStart() {
 
-    producer = createProducer();
     consoleLog = createConsoleLog();
     formatter = DateTimeFormat.forPattern(timeFormat).withZone(DateTimeZone.forID(timeZone));
+    oversizeHandler = new OversizeHandler(OversizeHandler.Policy.of(oversizePolicy),
+        maxFieldBytes, Math.max(maxEventBytes, maxFieldBytes), MAX_CHUNKS);
+    structuredFieldExtractor = isStructuredArguments() ? new StructuredFieldExtractor() : null;
+    // 规则不合法时不启动,避免未脱敏的日志上报
+    secretMasker = masks.isEmpty() ? null : SecretMasker.compile(masks);
+    if (offHeapBufferBytes > 0) {
+      arena = new OffHeapLogArena(offHeapBufferBytes, Math.max(1, captureStripes));
+    } else if (captureStripes > 0) {
+      stripedBuffer = new StripedLogBuffer(captureStripes);
+      logItemList = stripedBuffer;
+      pendingCheckInterval = Math.max(1, sendPackLogs / captureStripes);
+    }
+
+    // 未配置的本机标识在后台解析,发送时补齐
+    if (source == null || ip == null || hostname == null) {
+      hostIdentityLookup = new HostIdentity.Lookup(HostIdentity.resolve(),
+          HOST_RESOLVE_TIMEOUT_MILLIS);
+    }
 
-    if (null == source) {
-      source = getSource();
+    // 独立 hub 会创建线程,放在可能失败的步骤之后
+    clsHub = resolveHub();
+    memoryBudget = clsHub.getMemoryBudget();
+    if (drainParallelism > 0) {
+      drainPool = new ForkJoinPool(drainParallelism, this::newDrainThread, null, false);
     }
-    ip = getIp();
-    hostname = getHostname();
 
     super.start();
-    ThreadFactory namedThreadFactory =
-        new ThreadFactoryBuilder().setNameFormat("appender-timer-executor-thread-%d").build();
-    timerExecutor = Executors.newScheduledThreadPool(CONCURRENT_THREAD_TASKS, namedThreadFactory);
-    timerExecutor.scheduleAtFixedRate(() -> {
-      consoleLog.log("定时器启动 : " + new DateTime().toString(formatter));
-//      log.debug("定时器启动 {}", new DateTime().toString(formatter));
-      try {
-        send();
-      } catch (Exception e) {
-//        log.error("appender 定时器发生错误");
-//        log.error(e.getMessage(), e);
+    registration = clsHub.register(this);
+    if (isJmx()) {
+      registerMBean();
+    }
+  }
+
+  private void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.sevlow.cls:type=LoghubAppender,context="
+          + ObjectName.quote(String.valueOf(context.getName())) + ",name="
+          + ObjectName.quote(String.valueOf(getName())));
+      if (server.isRegistered(name)) {
+        // 重新加载配置时替换旧实例
+        server.unregisterMBean(name);
       }
-    }, sendInterval, sendInterval, TimeUnit.SECONDS);
+      server.registerMBean(new StandardMBean(new LoghubAppenderManagement(this),
+          LoghubAppenderMBean.class), name);
+      objectName = name;
+    } catch (Exception e) {
+      addWarn("Failed to register JMX MBean for LoghubAppender [" + getName() + "].", e);
+    }
+  }
+
+  private void unregisterMBean() {
+    ObjectName name = objectName;
+    if (name == null) {
+      return;
+    }
+    objectName = null;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (Exception e) {
+      // 已被注销
+    }
+  }
+
+  private ForkJoinWorkerThread newDrainThread(ForkJoinPool pool) {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("cls-drain-" + getName() + "-" + thread.getPoolIndex());
+    return thread;
+  }
+
+  /**
+   * 首个数据包发送时才创建 Producer (及 TLS / 地址探测)
+   *
+   * @return Producer
+   */
+  public Producer getProducer() {
+    Producer current = producer;
+    if (current == null) {
+      synchronized (this) {
+        current = producer;
+        if (current == null) {
+          current = createProducer();
+          producer = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * @return 已创建的 Producer,尚未发送过数据时为 null
+   */
+  Producer getCreatedProducer() {
+    return producer;
+  }
+
+  private Producer createProducer() {
+    ClsConfig clsConfig = createClsConfig();
+    Producer created = clsHub.createProducer(clsConfig);
+    created.setCompress(isCompress());
+    if (endpoint == null && "AUTO".equalsIgnoreCase(isInternal)) {
+      // 探测完成前默认使用外网地址
+      EndpointSelector selector = clsHub.createEndpointSelector(Arrays.asList(
+          "https://".concat(clsConfig.getHost(false)),
+          "https://".concat(clsConfig.getHost(true))));
+      created.setEndpointSelector(selector);
+      endpointProbe = clsHub.scheduleAtFixedRate(selector::probe, 0, endpointProbeInterval,
+          TimeUnit.SECONDS);
+    }
+    return created;
+  }
+
+  /**
+   * 本机标识,解析完成前最多等待到 start 后 HOST_RESOLVE_TIMEOUT_MILLIS,超时使用备用值 (不缓存,解析完成后生效)
+   */
+  private HostIdentity hostIdentity() {
+    if (hostIdentityLookup == null) {
+      return HostIdentity.fallback();
+    }
+    HostIdentity identity = hostIdentityLookup.get();
+    if (identity == null) {
+      if (!hostIdentityWarned) {
+        hostIdentityWarned = true;
+        addWarn("Local host identity not resolved within " + HOST_RESOLVE_TIMEOUT_MILLIS
+            + "ms, using fallback until resolved.");
+      }
+      return HostIdentity.fallback();
+    }
+    return identity;
+  }
+
+  /**
+   * 查找引用的共享 hub,未配置或不存在时创建独立的 hub
+   */
+  private ClsHub resolveHub() {
+    if (hub != null) {
+      ClsHub shared = ClsHub.lookup(context, hub);
+      if (shared != null && shared.isStarted()) {
+        privateHub = false;
+        return shared;
+      }
+      addError("ClsHub [" + hub + "] not found, fallback to private hub.");
+    }
+    ClsHub created = new ClsHub();
+    created.setContext(context);
+    created.setThreads(concurrency);
+    created.setMaxBufferBytes(maxBufferBytes);
+    created.setSampleWatermark(sampleWatermark);
+    created.setDropWatermark(dropWatermark);
+    created.setSampleRate(sampleRate);
+    created.setDebug(debug);
+    created.start();
+    privateHub = true;
+    return created;
   }
 
   private ConsoleLog createConsoleLog() {
     return new ConsoleLog(CLASS_NAME, isDebug());
   }
 
-  private Producer createProducer() {
+  private ClsConfig createClsConfig() {
     ClsConfig config = new ClsConfig();
     config.setRegion(region);
     config.setSecretId(secretId);
     config.setSecretKey(secretKey);
-    config.setRetries(MAX_SEND_RETRIES);
+    config.setRetries(maxSendRetries);
     config.setInternal("TRUE".equalsIgnoreCase(isInternal));
     config.setDebug(isDebug());
-    return new Producer(config);
+    config.setEndpoint(endpoint);
+    config.setCircuitFailureThreshold(circuitFailureThreshold);
+    config.setCircuitFailureRate(circuitFailureRate);
+    config.setCircuitOpenMillis(TimeUnit.SECONDS.toMillis(circuitOpenSeconds));
+    return config;
   }
 
   @Override
   public void stop() {
     super.stop();
-    consoleLog.log("appender timer executor 停止...");
-    if (timerExecutor != null && !timerExecutor.isShutdown()) {
-      timerExecutor.shutdown();
+    consoleLog.log("appender 停止...");
+    boolean exclusive = true;
+    if (registration != null) {
+      clsHub.unregister(registration);
+      // 等待 hub 中正在执行的发送任务结束,保证同一时刻只有一个线程发送
+      exclusive = registration.awaitExclusive(STOP_DRAIN_WAIT_MILLIS);
     }
-    // empty logItemList
-    while (!logItemList.isEmpty()) {
-      send();
+    if (endpointProbe != null) {
+      endpointProbe.cancel(false);
+    }
+    unregisterMBean();
+    if (exclusive) {
+      // empty logItemList (熔断或限流且策略为 buffer 时放弃)
+      try {
+        while (sendOnce()) {
+          // drain
+        }
+      } finally {
+        if (registration != null) {
+          registration.releaseExclusive();
+        }
+      }
+    } else {
+      addWarn("Sender of appender [" + getName() + "] still running after "
+          + STOP_DRAIN_WAIT_MILLIS + "ms, " + pendingLogs.sum() + " logs not flushed on stop.");
+    }
+    if (shutdownTimeout > 0) {
+      awaitOnStop();
+    }
+    if (drainPool != null) {
+      drainPool.shutdown();
+    }
+    if (privateHub) {
+      clsHub.stop();
     }
   }
 
@@ -198,13 +583,12 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
       return;
     }
 
-    //超过发送两
-    GLOBAL_COUNTER.increment();
-    if (GLOBAL_COUNTER.longValue() >= MAX_CACHE_PACK_LOGS) {
+    LoggingEvent event = (LoggingEvent) eventObject;
+    //超过内存预算水位线则降级
+    if (!memoryBudget.admit(event.getLevel())) {
       return;
     }
 
-    LoggingEvent event = (LoggingEvent) eventObject;
     LogItem logItem = new LogItem();
 
     String loggerName = event.getLoggerName()
@@ -212,9 +596,7 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
         .concat(String.valueOf(event.getCallerData()[0].getLineNumber()))
         .concat(")");
     String level = event.getLevel().levelStr;
-    String message = event.getMessage();
     String threadName = event.getThreadName();
-    String formattedMessage = event.getFormattedMessage();
     Long timestamp = event.getTimeStamp();
     String datetime = new DateTime(timestamp).toString(formatter);
     IThrowableProxy iThrowableProxy = event.getThrowableProxy();
@@ -229,8 +611,7 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
     logItem.setLevel(level);
     logItem.setLoggerName(loggerName);
     logItem.setThreadName(threadName);
-    logItem.setMessage(message);
-    logItem.setFormattedMessage(formattedMessage);
+    captureMessage(event, logItem);
     logItem.setThrowable(throwable);
     logItem.setHostname(hostname);
     logItem.setIp(ip);
@@ -241,14 +622,114 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
             .forEach(map -> logItem.getMdcFields().put(map.getKey(), map.getValue()))
 
     );
+    if (structuredFieldExtractor != null) {
+      structuredFieldExtractor.extract(event, logItem);
+    }
+
+    // 廉价上限估算,只有可能超过单条日志上限时才精确计算
+    logItem.setEstimatedBytes(LogSizes.estimate(logItem, oversizeHandler.getMaxEventBytes()));
+    if (arena != null) {
+      List<LogItem> items = oversizeHandler.isOversize(logItem)
+          ? oversizeHandler.handle(maskWhole(logItem)) : Collections.singletonList(logItem);
+      for (LogItem item : items) {
+        appendToArena(item);
+      }
+    } else if (oversizeHandler.isOversize(logItem)) {
+      List<LogItem> items = oversizeHandler.handle(maskWhole(logItem));
+      for (LogItem item : items) {
+        memoryBudget.acquire(item.getEstimatedBytes());
+      }
+      enqueued(items.size());
+      logItemList.addAll(items);
+    } else {
+      memoryBudget.acquire(logItem.getEstimatedBytes());
+      enqueued(1);
+      if (stripedBuffer != null) {
+        // 避免每条日志都汇总 LongAdder
+        if (stripedBuffer.append(logItem) % pendingCheckInterval != 0) {
+          return;
+        }
+      } else {
+        logItemList.add(logItem);
+      }
+    }
+
+    if (pendingLogs.intValue() >= sendPackLogs) {
+      registration.trigger();
+    }
+  }
+
+  /**
+   * 序列化写入堆外缓存 (容量用尽时丢弃,不占用堆内存预算);未配置的 ip / hostname 在发送时补齐
+   */
+  private void appendToArena(LogItem logItem) {
+    Log log = toLog(logItem, logItem.getIp(), logItem.getHostname());
+    if (!arena.append(log)) {
+      arenaDroppedLogs.increment();
+      return;
+    }
+    enqueued(1);
+  }
 
-    logItemList.add(logItem);
+  private void enqueued(int count) {
+    pendingLogs.add(count);
+    enqueuedLogs.add(count);
+  }
 
-    if (GLOBAL_COUNTER.intValue() >= sendPackLogs) {
-      send();
+  /**
+   * 日志已从缓存中取出 (发送或丢弃),唤醒条件已满足的 flush
+   */
+  private void dequeued(int count) {
+    pendingLogs.add(-count);
+    dequeuedLogs.add(count);
+    if (!flushWaiters.isEmpty()) {
+      releaseFlushWaiters();
     }
   }
 
+  /**
+   * 无参数时直接使用 message;开启延迟格式化且参数均为不可变类型时只保存 pattern 与参数快照
+   */
+  private void captureMessage(LoggingEvent event, LogItem logItem) {
+    Object[] arguments = event.getArgumentArray();
+    if (arguments == null || arguments.length == 0) {
+      logItem.setFormattedMessage(event.getMessage());
+      return;
+    }
+    if (isDeferFormatting() && DeferredMessage.isDeferrable(arguments)
+        && DeferredMessage.estimate(event.getMessage(), arguments) <= maxFieldBytes) {
+      logItem.setMessage(event.getMessage());
+      logItem.setArguments(DeferredMessage.snapshot(arguments));
+      return;
+    }
+    logItem.setFormattedMessage(event.getFormattedMessage());
+  }
+
+  private String formattedMessage(LogItem logItem) {
+    if (logItem.getFormattedMessage() == null && logItem.getMessage() != null) {
+      logItem.setFormattedMessage(
+          DeferredMessage.format(logItem.getMessage(), logItem.getArguments()));
+      logItem.setArguments(null);
+    }
+    return logItem.getFormattedMessage();
+  }
+
+  private String mask(String value) {
+    return secretMasker == null ? value : secretMasker.mask(value);
+  }
+
+  /**
+   * 超大日志在拆分或截断前整体脱敏,避免敏感信息跨越分片边界或被截断后无法识别
+   */
+  private LogItem maskWhole(LogItem logItem) {
+    if (secretMasker != null) {
+      logItem.setFormattedMessage(mask(formattedMessage(logItem)));
+      logItem.setThrowable(mask(logItem.getThrowable()));
+      logItem.setMasked(true);
+    }
+    return logItem;
+  }
+
   private String getExceptionInfo(IThrowableProxy iThrowableProxy) {
     String s = iThrowableProxy.getClassName();
     String message = iThrowableProxy.getMessage();
@@ -266,100 +747,399 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
     return builder.toString();
   }
 
-  private void send() {
+  @Override
+  public boolean sendOnce() {
     // 发送日志
 //    log.debug("发送日志");
-    int count = 0;
-    if (logItemList.isEmpty()) {
+    if (isBufferEmpty()) {
 //      log.debug("日志信息为空,跳过发送日志");
-      return;
+      return false;
+    }
+    Producer producer = getProducer();
+    ClsError fatalError = producer.getFatalError();
+    if (fatalError != null) {
+      onFatalError(fatalError);
+      return false;
+    }
+    if (producer.isThrottled(topicId)) {
+      // 限流退避中,日志保留在缓存中
+      return false;
     }
 
-    CONTEXT_FLOW.increment();
-    LogItem logItem = null;
-    LogGroup.Builder logGroupBuilder = LogGroup.newBuilder();
-    logGroupBuilder
-        .setContextFlow(CONTEXT_FLOW_PREFIX.concat("-" + CONTEXT_FLOW.longValue()));
-    while ((logItem = logItemList.poll()) != null) {
+    CircuitBreaker.Permit permit = producer.acquire();
+    if (permit == CircuitBreaker.Permit.NONE) {
+      return degrade();
+    }
+    HostIdentity identity = hostIdentity();
+    BatchLimits limits = batchLimits;
+    if (permit == CircuitBreaker.Permit.NORMAL && drainPool != null
+        && pendingLogs.intValue() > limits.packLogs) {
+      return drainParallel(producer, permit, identity, limits);
+    }
+    int packLogs = permit == CircuitBreaker.Permit.PROBE ? PROBE_PACK_LOGS : limits.packLogs;
 
-      Log.Builder logBuilder = Log.newBuilder();
-      logBuilder
-          .setTime(logItem.getTime())
-          .addContents(content(LogItem.FIELD_TIME, String.valueOf(logItem.getTime())))
-          .addContents(content(LogItem.FIELD_DATETIME, logItem.getDatetime()))
-          .addContents(content(LogItem.FIELD_LEVEL, logItem.getLevel()))
-          .addContents(content(LogItem.FIELD_LOGGER_NAME, logItem.getLoggerName()))
-          .addContents(content(LogItem.FIELD_THREAD_NAME, logItem.getThreadName()))
-          .addContents(content(LogItem.FIELD_IP, logItem.getIp()))
-          .addContents(content(LogItem.FIELD_HOSTNAME, logItem.getHostname()))
-//          .addContents(content(LogItem.FIELD_MESSAGE, logItem.getMessage()))
-          .addContents(content(LogItem.FIELD_FORMATTED_MESSAGE, logItem.getFormattedMessage()));
-
-      if (null != logItem.getThrowable()) {
-        logBuilder.addContents(content(LogItem.FIELD_THROWABLE, logItem.getThrowable()));
+    CompletableFuture<DeliveryResult> delivery = track();
+    PolledBatch batch = pollBatch(packLogs, limits.maxBytes, identity, delivery);
+    if (batch == null) {
+      // 缓存已被取空,归还许可
+      producer.release(permit);
+      delivery.complete(DeliveryResult.rejected(0));
+      return false;
+    }
+    upload(producer, permit, batch, delivery);
+    return !isBufferEmpty();
+  }
+
+  /**
+   * 积压较多时 (故障恢复、停止时) 一次切分 drainParallelism 个数据包,由 drainPool 并行编码、压缩并上传
+   * <p>
+   * contextFlow 在切分时按顺序分配,与完成顺序无关
+   *
+   * @return 是否仍有待发送数据
+   */
+  private boolean drainParallel(Producer producer, CircuitBreaker.Permit permit,
+      HostIdentity identity, BatchLimits limits) {
+    List<ForkJoinTask<?>> tasks = new ArrayList<>(drainParallelism);
+    for (int i = 0; i < drainParallelism; i++) {
+      CompletableFuture<DeliveryResult> delivery = track();
+      PolledBatch batch = pollBatch(limits.packLogs, limits.maxBytes, identity, delivery);
+      if (batch == null) {
+        delivery.complete(DeliveryResult.rejected(0));
+        break;
       }
-      if (!logItem.getMdcFields().isEmpty()) {
-        logItem.getMdcFields().forEach((key, value) -> logBuilder.addContents(content(key, value)));
+      tasks.add(drainPool.submit(() -> upload(producer, permit, batch, delivery)));
+    }
+    // 等待本轮完成,保证同一 appender 同一时刻只占用一个发送任务
+    for (ForkJoinTask<?> task : tasks) {
+      try {
+        task.join();
+      } catch (RuntimeException e) {
+        consoleLog.log("编码失败 : ".concat(String.valueOf(e.getMessage())));
       }
+    }
+    return !isBufferEmpty();
+  }
 
-      logGroupBuilder.setSource(this.source);
-      logGroupBuilder.addLogs(logBuilder.build());
+  private boolean isBufferEmpty() {
+    return arena != null ? arena.isEmpty() : logItemList.isEmpty();
+  }
 
-      count++;
-      if (count >= sendPackLogs) {
+  /**
+   * 从缓存中取出一个数据包的日志并分配 contextFlow,数据包上限为软限制,最多超出一条日志
+   * (单条日志已被限制在 maxEventBytes 内)
+   * <p>
+   * 取出的日志在 delivery 完成 (送达、放弃或编码失败) 前仍计入内存预算,服务端响应慢时发送中的数据包不会绕过预算
+   *
+   * @return 取出的数据包 (编码在发送线程或 drainPool 中执行),缓存为空时为 null
+   */
+  private PolledBatch pollBatch(int packLogs, int maxBytes, HostIdentity identity,
+      CompletableFuture<DeliveryResult> delivery) {
+    int capacity = Math.max(1, Math.min(packLogs, pendingLogs.intValue()));
+    if (arena != null) {
+      List<byte[]> records = new ArrayList<>(capacity);
+      arena.poll(records, packLogs, maxBytes);
+      if (records.isEmpty()) {
+        return null;
+      }
+      dequeued(records.size());
+      String flow = nextContextFlow();
+      return new PolledBatch(records.size(), () -> decode(records, flow, identity));
+    }
+    List<LogItem> batch = new ArrayList<>(capacity);
+    long batchBytes = 0;
+    LogItem logItem;
+    while ((logItem = logItemList.poll()) != null) {
+      batch.add(logItem);
+      batchBytes += logItem.getEstimatedBytes();
+      if (batch.size() >= packLogs || batchBytes >= maxBytes) {
         break;
       }
     }
+//    System.out.println("发送条数:".concat(String.valueOf(batch.size())));
+    if (batch.isEmpty()) {
+      return null;
+    }
+    dequeued(batch.size());
+    long acquiredBytes = batchBytes;
+    delivery.whenComplete((result, e) -> memoryBudget.release(acquiredBytes));
+    String flow = nextContextFlow();
+    return new PolledBatch(batch.size(), () -> encode(batch, flow, identity));
+  }
+
+  private String nextContextFlow() {
+    contextFlow.increment();
+    return contextFlowPrefix.concat("-" + contextFlow.longValue());
+  }
+
+  private LogGroup.Builder newLogGroup(String flow, HostIdentity identity) {
+    return LogGroup.newBuilder()
+        .setSource(source != null ? source : identity.getSource())
+        .setContextFlow(flow);
+  }
+
+  private LogGroup encode(List<LogItem> batch, String flow, HostIdentity identity) {
+    String hostIp = ip != null ? ip : identity.getIp();
+    String hostName = hostname != null ? hostname : identity.getHostname();
+    LogGroup.Builder logGroupBuilder = newLogGroup(flow, identity);
+    for (LogItem logItem : batch) {
+      logGroupBuilder.addLogs(toLog(logItem,
+          logItem.getIp() != null ? logItem.getIp() : hostIp,
+          logItem.getHostname() != null ? logItem.getHostname() : hostName));
+    }
+    return logGroupBuilder.build();
+  }
+
+  /**
+   * 堆外缓存中的日志已序列化,只需补齐采集时未配置的 ip / hostname
+   */
+  private LogGroup decode(List<byte[]> records, String flow, HostIdentity identity) {
+    LogGroup.Builder logGroupBuilder = newLogGroup(flow, identity);
+    for (byte[] record : records) {
+      Log.Builder logBuilder = Log.newBuilder();
+      try {
+        logBuilder.mergeFrom(record);
+      } catch (InvalidProtocolBufferException e) {
+        consoleLog.log("堆外缓存日志解析失败 : ".concat(String.valueOf(e.getMessage())));
+        continue;
+      }
+      if (ip == null) {
+        logBuilder.addContents(content(LogItem.FIELD_IP, identity.getIp()));
+      }
+      if (hostname == null) {
+        logBuilder.addContents(content(LogItem.FIELD_HOSTNAME, identity.getHostname()));
+      }
+      logGroupBuilder.addLogs(logBuilder);
+    }
+    return logGroupBuilder.build();
+  }
+
+  /**
+   * @param hostIp   ip,为 null 时不写入
+   * @param hostName hostname,为 null 时不写入
+   */
+  private Log toLog(LogItem logItem, String hostIp, String hostName) {
+    Log.Builder logBuilder = Log.newBuilder();
+    logBuilder
+        .setTime(logItem.getTime())
+        .addContents(content(LogItem.FIELD_TIME, String.valueOf(logItem.getTime())))
+        .addContents(content(LogItem.FIELD_DATETIME, logItem.getDatetime()))
+        .addContents(content(LogItem.FIELD_LEVEL, logItem.getLevel()))
+        .addContents(content(LogItem.FIELD_LOGGER_NAME, logItem.getLoggerName()))
+        .addContents(content(LogItem.FIELD_THREAD_NAME, logItem.getThreadName()));
+    if (hostIp != null) {
+      logBuilder.addContents(content(LogItem.FIELD_IP, hostIp));
+    }
+    if (hostName != null) {
+      logBuilder.addContents(content(LogItem.FIELD_HOSTNAME, hostName));
+    }
+    logBuilder
+//        .addContents(content(LogItem.FIELD_MESSAGE, logItem.getMessage()))
+        .addContents(content(LogItem.FIELD_FORMATTED_MESSAGE, logItem.isMasked()
+            ? formattedMessage(logItem) : mask(formattedMessage(logItem))));
 
-//    System.out.println("发送条数:".concat(String.valueOf(count)));
-    GLOBAL_COUNTER.add(-count);
+    if (null != logItem.getThrowable()) {
+      logBuilder.addContents(content(LogItem.FIELD_THROWABLE,
+          logItem.isMasked() ? logItem.getThrowable() : mask(logItem.getThrowable())));
+    }
+    if (!logItem.getMdcFields().isEmpty()) {
+      logItem.getMdcFields().forEach((key, value) -> logBuilder.addContents(content(key, value)));
+    }
+    if (null != logItem.getStructuredFields()) {
+      logItem.getStructuredFields()
+          .forEach((key, value) -> logBuilder.addContents(content(key, value)));
+    }
+    if (null != logItem.getChunkId()) {
+      logBuilder
+          .addContents(content(LogItem.FIELD_CHUNK_ID, logItem.getChunkId()))
+          .addContents(
+              content(LogItem.FIELD_CHUNK_INDEX, String.valueOf(logItem.getChunkIndex())))
+          .addContents(
+              content(LogItem.FIELD_CHUNK_COUNT, String.valueOf(logItem.getChunkCount())));
+    }
+    return logBuilder.build();
+  }
+
+  /**
+   * 登记一个即将取出的数据包,必须在从缓存取出日志之前调用,保证 flush 不会漏掉正在编码的数据包
+   */
+  private CompletableFuture<DeliveryResult> track() {
+    CompletableFuture<DeliveryResult> delivery = new CompletableFuture<>();
+    inFlight.add(delivery);
+    delivery.whenComplete((result, e) -> inFlight.remove(delivery));
+    return delivery;
+  }
+
+  /**
+   * 编码并上传,delivery 在数据包送达或放弃时完成 (编码或构建请求失败时为 REJECTED)
+   * <p>
+   * 编码失败时没有调用上传,归还许可 (构建请求失败时由 Producer 计入熔断)
+   */
+  private void upload(Producer producer, CircuitBreaker.Permit permit, PolledBatch batch,
+      CompletableFuture<DeliveryResult> delivery) {
+    LogGroupList logGroupList = null;
+    boolean submitted = false;
     try {
-      producer.lz4Upload(this.topicId, LogGroupList.newBuilder()
-          .addLogGroupList(logGroupBuilder.build())
-          .build());
+      logGroupList = LogGroupList.newBuilder()
+          .addLogGroupList(batch.encoder.get())
+          .build();
+      producer.lz4Upload(this.topicId, logGroupList)
+          .whenComplete((result, e) -> delivery.complete(result));
+      submitted = true;
     } catch (IOException e) {
       // retry ?
+    } finally {
+      if (!submitted) {
+        if (logGroupList == null) {
+          producer.release(permit);
+        }
+        delivery.complete(DeliveryResult.rejected(batch.logs));
+      }
     }
+  }
 
+  /**
+   * 立即请求发送调用前写入的日志
+   * <p>
+   * 由 hub 中该 appender 唯一的发送任务执行 (不在调用线程中发送),保证同一时刻只有一个发送任务与 contextFlow 顺序。
+   * 返回的 future 在这些日志全部送达或放弃 (包括调用前已在发送中的数据包) 后完成;熔断或限流期间日志保留在缓存中,
+   * 由发送线程在恢复后发送。分段缓存 (captureStripes) 的各分段之间不保证顺序,按条数判断
+   *
+   * @return 完成通知,不会异常完成
+   */
+  public CompletableFuture<Void> flush() {
+    FlushWaiter waiter = new FlushWaiter(enqueuedLogs.sum());
+    flushWaiters.add(waiter);
+    releaseFlushWaiters();
+    ClsHub.Registration current = registration;
+    if (!waiter.future.isDone() && (current == null || !current.trigger())) {
+      // 已停止,没有发送任务
+      while (dequeuedLogs.sum() < waiter.target && sendOnce()) {
+        // drain
+      }
+    }
+    return waiter.future;
+  }
 
+  /**
+   * 发送调用前写入的日志并等待送达或放弃,用于批处理任务结束或停止前替代固定时间的等待
+   *
+   * @param timeout 超时
+   * @param unit    时间单位
+   * @return 是否在超时前全部完成 (放弃的日志数见 {@link Producer#getRejectedLogs()})
+   * @throws InterruptedException 等待时被中断
+   */
+  public boolean awaitDelivered(long timeout, TimeUnit unit) throws InterruptedException {
+    CompletableFuture<Void> flushed = flush();
+    try {
+      flushed.get(timeout, unit);
+      return true;
+    } catch (TimeoutException e) {
+      flushWaiters.removeIf(waiter -> waiter.future == flushed);
+      return false;
+    } catch (ExecutionException e) {
+      return true;
+    }
   }
 
-  private InetAddress getInetAddress() {
+  private void awaitOnStop() {
     try {
-      return InetAddress.getLocalHost();
-    } catch (UnknownHostException e) {
-      addError(e.getMessage());
+      if (!awaitDelivered(shutdownTimeout, TimeUnit.SECONDS)) {
+        addWarn("Uploads of appender [" + getName() + "] not completed within "
+            + shutdownTimeout + "s, " + pendingLogs.sum() + " logs still buffered.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
-    return null;
   }
 
-  private String getIp() {
-    InetAddress addr = getInetAddress();
-    if (addr != null) {
-      return addr.getHostAddress();
+  /**
+   * 目标日志均已取出的 flush 等待此刻所有发送中的数据包完成
+   */
+  private void releaseFlushWaiters() {
+    long dequeued = dequeuedLogs.sum();
+    for (FlushWaiter waiter : flushWaiters) {
+      if (waiter.target <= dequeued && flushWaiters.remove(waiter)) {
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]))
+            .whenComplete((result, e) -> waiter.future.complete(null));
+      }
     }
-    return "";
   }
 
-  private String getHostname() {
-    InetAddress addr = getInetAddress();
-    if (addr != null) {
-      return addr.getHostName();
+  /**
+   * 熔断期间不构建数据包 : buffer 策略保留数据等待恢复, drop 策略丢弃一个数据包
+   *
+   * @return 是否需要继续处理
+   */
+  private boolean degrade() {
+    if (!isDropOnCircuitOpen()) {
+      return false;
+    }
+    circuitDroppedLogs.add(discard(sendPackLogs));
+    return !isBufferEmpty();
+  }
+
+  /**
+   * 鉴权失败或主题不存在,重试无意义 : 停止 appender 并丢弃缓存
+   */
+  private void onFatalError(ClsError error) {
+    if (!fatalStopped.compareAndSet(false, true)) {
+      return;
+    }
+    addError("CLS rejected uploads to topic [" + topicId + "], appender [" + getName()
+        + "] stopped : " + error);
+    super.stop();
+    if (registration != null) {
+      clsHub.unregister(registration);
+    }
+    if (endpointProbe != null) {
+      endpointProbe.cancel(false);
     }
-    return "";
+    fatalDroppedLogs.add(discard(Integer.MAX_VALUE));
   }
 
-  private String getSource() {
-    return getHostname().concat("(".concat(getIp()).concat(")"));
+  /**
+   * 丢弃缓存中的日志并释放内存预算
+   *
+   * @return 丢弃数量
+   */
+  private int discard(int max) {
+    int count = 0;
+    long bytes = 0;
+    if (arena != null) {
+      // 分批取出,避免一次复制整个堆外缓存
+      List<byte[]> records = new ArrayList<>();
+      while (count < max) {
+        records.clear();
+        arena.poll(records, Math.min(max - count, sendPackLogs), Long.MAX_VALUE);
+        if (records.isEmpty()) {
+          break;
+        }
+        count += records.size();
+      }
+      dequeued(count);
+      return count;
+    }
+    LogItem logItem;
+    while (count < max && (logItem = logItemList.poll()) != null) {
+      count++;
+      bytes += logItem.getEstimatedBytes();
+    }
+    dequeued(count);
+    memoryBudget.release(bytes);
+    return count;
   }
 
   private Content content(String key, String value) {
     return Content.newBuilder()
-        .setKey(key)
-        .setValue(value)
+        .setKeyBytes(ContentKeys.of(key))
+        .setValue(value == null ? "" : value)
         .build();
   }
 
+  public void addMask(MaskRule mask) {
+    masks.add(mask);
+  }
+
   public void setSendInterval(int sendInterval) {
     if (sendInterval > MAX_SEND_INTERVAL) {
       sendInterval = MAX_SEND_INTERVAL;
@@ -372,12 +1152,189 @@ public class LoghubAppender<E> extends UnsynchronizedAppenderBase<E> {
   }
 
   public void setSendPackLogs(int sendPackLogs) {
+    configureBatch(sendPackLogs, maxBatchBytes);
+  }
+
+  /**
+   * 同时修改单次发送数据包的条数与字节数上限,运行中修改从下一个数据包开始一次性生效
+   *
+   * @param sendPackLogs  日志条数
+   * @param maxBatchBytes 字节数上限
+   */
+  public synchronized void configureBatch(int sendPackLogs, int maxBatchBytes) {
     if (sendPackLogs > MAX_SEND_PACK_LOGS) {
       sendPackLogs = MAX_SEND_PACK_LOGS;
     }
     if (sendPackLogs < MIN_SEND_PACK_LOGS) {
       sendPackLogs = MIN_SEND_PACK_LOGS;
     }
+    if (maxBatchBytes > MAX_BATCH_BYTES) {
+      maxBatchBytes = MAX_BATCH_BYTES;
+    }
+    if (maxBatchBytes < MAX_EVENT_BYTES) {
+      maxBatchBytes = MAX_EVENT_BYTES;
+    }
     this.sendPackLogs = sendPackLogs;
+    this.maxBatchBytes = maxBatchBytes;
+    this.batchLimits = new BatchLimits(sendPackLogs, maxBatchBytes);
+    if (captureStripes > 0) {
+      pendingCheckInterval = Math.max(1, sendPackLogs / captureStripes);
+    }
+  }
+
+  /**
+   * 同时修改内存预算与采样参数,运行中修改一次性作用于 hub 的内存预算
+   *
+   * @param maxBufferBytes  内存预算 (字节)
+   * @param sampleWatermark 开始采样的水位线 (百分比)
+   * @param dropWatermark   开始丢弃低级别日志的水位线 (百分比)
+   * @param sampleRate      采样阶段每 sampleRate 条保留 1 条
+   */
+  public synchronized void configureBuffer(long maxBufferBytes, int sampleWatermark,
+      int dropWatermark, int sampleRate) {
+    setMaxBufferBytes(maxBufferBytes);
+    setSampleWatermark(sampleWatermark);
+    setDropWatermark(dropWatermark);
+    setSampleRate(sampleRate);
+    MemoryBudget budget = memoryBudget;
+    if (budget != null) {
+      budget.reconfigure(this.maxBufferBytes, this.sampleWatermark, this.dropWatermark,
+          this.sampleRate);
+    }
+  }
+
+  public void setMaxSendRetries(int maxSendRetries) {
+    this.maxSendRetries = Math.min(MAX_SEND_RETRIES_LIMIT, Math.max(0, maxSendRetries));
+    Producer current = producer;
+    if (current != null) {
+      current.setRetries(this.maxSendRetries);
+    }
+  }
+
+  public void setConcurrency(int concurrency) {
+    this.concurrency = Math.min(MAX_CONCURRENT_THREAD_TASKS, Math.max(1, concurrency));
+    ClsHub current = clsHub;
+    if (current != null && current.isStarted()) {
+      current.setThreads(this.concurrency);
+    }
+  }
+
+  public void setCompressType(String compressType) {
+    this.compressType = compressType;
+    Producer current = producer;
+    if (current != null) {
+      current.setCompress(isCompress());
+    }
+  }
+
+  public void setEndpointProbeInterval(int endpointProbeInterval) {
+    this.endpointProbeInterval = Math.max(1, endpointProbeInterval);
+  }
+
+  public void setCircuitOpenSeconds(int circuitOpenSeconds) {
+    this.circuitOpenSeconds = Math.max(1, circuitOpenSeconds);
+  }
+
+  public void setMaxBufferBytes(long maxBufferBytes) {
+    if (maxBufferBytes < MIN_BUFFER_BYTES) {
+      maxBufferBytes = MIN_BUFFER_BYTES;
+    }
+    this.maxBufferBytes = maxBufferBytes;
+  }
+
+  public void setSampleWatermark(int sampleWatermark) {
+    this.sampleWatermark = Math.min(100, Math.max(0, sampleWatermark));
+  }
+
+  public void setDropWatermark(int dropWatermark) {
+    this.dropWatermark = Math.min(100, Math.max(0, dropWatermark));
+  }
+
+  public void setSampleRate(int sampleRate) {
+    this.sampleRate = Math.max(1, sampleRate);
+  }
+
+  public void setCaptureStripes(int captureStripes) {
+    this.captureStripes = Math.min(MAX_CAPTURE_STRIPES, Math.max(0, captureStripes));
+  }
+
+  public void setOffHeapBufferBytes(long offHeapBufferBytes) {
+    if (offHeapBufferBytes > 0 && offHeapBufferBytes < MIN_BUFFER_BYTES) {
+      offHeapBufferBytes = MIN_BUFFER_BYTES;
+    }
+    this.offHeapBufferBytes = Math.max(0, offHeapBufferBytes);
+  }
+
+  public void setShutdownTimeout(int shutdownTimeout) {
+    this.shutdownTimeout = Math.max(0, Math.min(MAX_SHUTDOWN_TIMEOUT, shutdownTimeout));
+  }
+
+  public void setDrainParallelism(int drainParallelism) {
+    this.drainParallelism = Math.min(MAX_DRAIN_PARALLELISM, Math.max(0, drainParallelism));
+  }
+
+  public void setMaxFieldBytes(int maxFieldBytes) {
+    if (maxFieldBytes > MAX_EVENT_BYTES) {
+      maxFieldBytes = MAX_EVENT_BYTES;
+    }
+    if (maxFieldBytes < MIN_FIELD_BYTES) {
+      maxFieldBytes = MIN_FIELD_BYTES;
+    }
+    this.maxFieldBytes = maxFieldBytes;
+  }
+
+  public void setMaxEventBytes(int maxEventBytes) {
+    if (maxEventBytes > MAX_EVENT_BYTES) {
+      maxEventBytes = MAX_EVENT_BYTES;
+    }
+    if (maxEventBytes < MIN_FIELD_BYTES) {
+      maxEventBytes = MIN_FIELD_BYTES;
+    }
+    this.maxEventBytes = maxEventBytes;
+  }
+
+  public void setMaxBatchBytes(int maxBatchBytes) {
+    configureBatch(sendPackLogs, maxBatchBytes);
+  }
+
+  /**
+   * 已从缓存中取出、尚未编码的数据包
+   */
+  private static final class PolledBatch {
+
+    private final int logs;
+
+    private final Supplier<LogGroup> encoder;
+
+    private PolledBatch(int logs, Supplier<LogGroup> encoder) {
+      this.logs = logs;
+      this.encoder = encoder;
+    }
+  }
+
+  private static final class BatchLimits {
+
+    private final int packLogs;
+
+    private final int maxBytes;
+
+    private BatchLimits(int packLogs, int maxBytes) {
+      this.packLogs = packLogs;
+      this.maxBytes = maxBytes;
+    }
+  }
+
+  /**
+   * 等待 target 条日志 (flush 时的累计写入数) 取出并完成发送
+   */
+  private static final class FlushWaiter {
+
+    private final long target;
+
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private FlushWaiter(long target) {
+      this.target = target;
+    }
   }
 }
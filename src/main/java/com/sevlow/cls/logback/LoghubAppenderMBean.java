@@ -0,0 +1,119 @@
+package com.sevlow.cls.logback;
+
+/**
+ * LoghubAppender 运行时管理接口 (JMX)
+ * <p>
+ * 开启 jmx 后注册为 com.sevlow.cls:type=LoghubAppender,context=&lt;context&gt;,name=&lt;appender&gt;,
+ * 修改立即作用于运行中的发送任务,不需要重新加载 LoggerContext;取值范围与 logback.xml 配置相同
+ * <p>
+ * 内存预算、采样与发送线程数属于 appender 使用的 hub,引用共享 hub 时会影响共享该 hub 的所有 appender
+ *
+ * @author einsitang
+ */
+public interface LoghubAppenderMBean {
+
+  /**
+   * @return 发送周期 (秒)
+   */
+  int getSendInterval();
+
+  void setSendInterval(int sendInterval);
+
+  /**
+   * @return 单次发送数据包日志条数
+   */
+  int getSendPackLogs();
+
+  void setSendPackLogs(int sendPackLogs);
+
+  /**
+   * @return 单次发送数据包字节数上限
+   */
+  int getMaxBatchBytes();
+
+  void setMaxBatchBytes(int maxBatchBytes);
+
+  /**
+   * @return 可重试错误的最大重试次数
+   */
+  int getMaxSendRetries();
+
+  void setMaxSendRetries(int maxSendRetries);
+
+  /**
+   * @return hub 发送线程数
+   */
+  int getConcurrency();
+
+  void setConcurrency(int concurrency);
+
+  /**
+   * @return 压缩方式 : lz4 / none
+   */
+  String getCompressType();
+
+  void setCompressType(String compressType);
+
+  /**
+   * @return 缓存日志内存预算 (字节)
+   */
+  long getMaxBufferBytes();
+
+  void setMaxBufferBytes(long maxBufferBytes);
+
+  int getSampleWatermark();
+
+  void setSampleWatermark(int sampleWatermark);
+
+  int getDropWatermark();
+
+  void setDropWatermark(int dropWatermark);
+
+  int getSampleRate();
+
+  void setSampleRate(int sampleRate);
+
+  /**
+   * 同时修改内存预算与采样参数,一次性生效
+   *
+   * @param maxBufferBytes  内存预算 (字节)
+   * @param sampleWatermark 开始采样的水位线 (百分比)
+   * @param dropWatermark   开始丢弃低级别日志的水位线 (百分比)
+   * @param sampleRate      采样阶段每 sampleRate 条保留 1 条
+   */
+  void configureBuffer(long maxBufferBytes, int sampleWatermark, int dropWatermark,
+      int sampleRate);
+
+  /**
+   * 同时修改单次发送数据包的条数与字节数上限,一次性生效
+   *
+   * @param sendPackLogs  日志条数
+   * @param maxBatchBytes 字节数上限
+   */
+  void configureBatch(int sendPackLogs, int maxBatchBytes);
+
+  /**
+   * @return 待发送日志数
+   */
+  long getBufferedLogs();
+
+  /**
+   * @return 缓存日志占用的内存预算 (字节)
+   */
+  long getBufferedBytes();
+
+  /**
+   * @return 内存预算阶段 : NORMAL / SAMPLING / DROP_LOW_LEVEL / FULL
+   */
+  String getBufferStage();
+
+  /**
+   * @return 被服务端拒绝或重试耗尽后放弃的日志数
+   */
+  long getRejectedLogs();
+
+  /**
+   * @return 熔断状态 : CLOSED / OPEN / HALF_OPEN
+   */
+  String getCircuitState();
+}
@@ -0,0 +1,169 @@
+package com.sevlow.cls.logback;
+
+/**
+ * {@link LoghubAppenderMBean} 实现,内存预算与发送线程数读取 hub 的当前值
+ *
+ * @author einsitang
+ */
+final class LoghubAppenderManagement implements LoghubAppenderMBean {
+
+  private final LoghubAppender<?> appender;
+
+  LoghubAppenderManagement(LoghubAppender<?> appender) {
+    this.appender = appender;
+  }
+
+  @Override
+  public int getSendInterval() {
+    return appender.getSendInterval();
+  }
+
+  @Override
+  public void setSendInterval(int sendInterval) {
+    appender.setSendInterval(sendInterval);
+  }
+
+  @Override
+  public int getSendPackLogs() {
+    return appender.getSendPackLogs();
+  }
+
+  @Override
+  public void setSendPackLogs(int sendPackLogs) {
+    appender.setSendPackLogs(sendPackLogs);
+  }
+
+  @Override
+  public int getMaxBatchBytes() {
+    return appender.getMaxBatchBytes();
+  }
+
+  @Override
+  public void setMaxBatchBytes(int maxBatchBytes) {
+    appender.setMaxBatchBytes(maxBatchBytes);
+  }
+
+  @Override
+  public void configureBatch(int sendPackLogs, int maxBatchBytes) {
+    appender.configureBatch(sendPackLogs, maxBatchBytes);
+  }
+
+  @Override
+  public int getMaxSendRetries() {
+    return appender.getMaxSendRetries();
+  }
+
+  @Override
+  public void setMaxSendRetries(int maxSendRetries) {
+    appender.setMaxSendRetries(maxSendRetries);
+  }
+
+  @Override
+  public int getConcurrency() {
+    return appender.getClsHub().getThreads();
+  }
+
+  @Override
+  public void setConcurrency(int concurrency) {
+    appender.setConcurrency(concurrency);
+  }
+
+  @Override
+  public String getCompressType() {
+    return "NONE".equalsIgnoreCase(appender.getCompressType()) ? "none" : "lz4";
+  }
+
+  @Override
+  public void setCompressType(String compressType) {
+    if (!"LZ4".equalsIgnoreCase(compressType) && !"NONE".equalsIgnoreCase(compressType)) {
+      throw new IllegalArgumentException("compressType must be lz4 or none : " + compressType);
+    }
+    appender.setCompressType(compressType);
+  }
+
+  @Override
+  public long getMaxBufferBytes() {
+    return budget().getMaxBytes();
+  }
+
+  @Override
+  public void setMaxBufferBytes(long maxBufferBytes) {
+    MemoryBudget budget = budget();
+    appender.configureBuffer(maxBufferBytes, budget.getSampleWatermark(),
+        budget.getDropWatermark(), budget.getSampleRate());
+  }
+
+  @Override
+  public int getSampleWatermark() {
+    return budget().getSampleWatermark();
+  }
+
+  @Override
+  public void setSampleWatermark(int sampleWatermark) {
+    MemoryBudget budget = budget();
+    appender.configureBuffer(budget.getMaxBytes(), sampleWatermark, budget.getDropWatermark(),
+        budget.getSampleRate());
+  }
+
+  @Override
+  public int getDropWatermark() {
+    return budget().getDropWatermark();
+  }
+
+  @Override
+  public void setDropWatermark(int dropWatermark) {
+    MemoryBudget budget = budget();
+    appender.configureBuffer(budget.getMaxBytes(), budget.getSampleWatermark(), dropWatermark,
+        budget.getSampleRate());
+  }
+
+  @Override
+  public int getSampleRate() {
+    return budget().getSampleRate();
+  }
+
+  @Override
+  public void setSampleRate(int sampleRate) {
+    MemoryBudget budget = budget();
+    appender.configureBuffer(budget.getMaxBytes(), budget.getSampleWatermark(),
+        budget.getDropWatermark(), sampleRate);
+  }
+
+  @Override
+  public void configureBuffer(long maxBufferBytes, int sampleWatermark, int dropWatermark,
+      int sampleRate) {
+    appender.configureBuffer(maxBufferBytes, sampleWatermark, dropWatermark, sampleRate);
+  }
+
+  @Override
+  public long getBufferedLogs() {
+    return appender.getPendingLogs().sum();
+  }
+
+  @Override
+  public long getBufferedBytes() {
+    return budget().getUsedBytes();
+  }
+
+  @Override
+  public String getBufferStage() {
+    return budget().getStage().name();
+  }
+
+  @Override
+  public long getRejectedLogs() {
+    Producer producer = appender.getCreatedProducer();
+    return producer == null ? 0 : producer.getRejectedLogs();
+  }
+
+  @Override
+  public String getCircuitState() {
+    Producer producer = appender.getCreatedProducer();
+    return producer == null ? CircuitBreaker.State.CLOSED.name()
+        : producer.getCircuitState().name();
+  }
+
+  private MemoryBudget budget() {
+    return appender.getMemoryBudget();
+  }
+}
@@ -0,0 +1,44 @@
+package com.sevlow.cls.logback;
+
+import lombok.Data;
+
+/**
+ * 脱敏规则,在 logback.xml 中以 &lt;mask&gt; 声明 (可声明多个) :
+ * <pre>
+ * &lt;mask&gt;
+ *   &lt;type&gt;prefix&lt;/type&gt;
+ *   &lt;pattern&gt;password=&lt;/pattern&gt;
+ * &lt;/mask&gt;
+ * </pre>
+ * <p>
+ * literal : 出现 pattern 时替换 pattern 本身
+ * <p>
+ * prefix : 出现 pattern 时替换其后的值 (到空白或 , ; &amp; " ' 等分隔符为止),保留 pattern
+ * <p>
+ * digits : 替换长度为 pattern (可用逗号分隔多个长度) 的连续数字,末位可为 X (身份证号),前后紧邻英文字母或数字时不替换
+ * <p>
+ * 配置 regex 时只有从匹配位置 (literal / digits 为起始位置, prefix 为值的起始位置) 开始满足 regex 才替换,
+ * 替换范围为 regex 匹配的部分
+ *
+ * @author einsitang
+ */
+@Data
+public class MaskRule {
+
+  /**
+   * literal / prefix / digits
+   */
+  private String type;
+
+  private String pattern;
+
+  /**
+   * 可选,精确匹配
+   */
+  private String regex;
+
+  /**
+   * 替换内容,默认 ****
+   */
+  private String replacement;
+}
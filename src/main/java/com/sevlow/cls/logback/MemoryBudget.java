@@ -0,0 +1,293 @@
+package com.sevlow.cls.logback;
+
+import ch.qos.logback.classic.Level;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存日志内存预算 (按采集时估算的字节数计算)
+ * <p>
+ * 超过水位线后逐级降级 :
+ * <p>
+ * SAMPLING : 低于 WARN 级别的日志按比例采样
+ * <p>
+ * DROP_LOW_LEVEL : 丢弃低于 WARN 级别的日志
+ * <p>
+ * FULL : 丢弃全部日志
+ * <p>
+ * 预算与水位线可在运行时通过 {@link #reconfigure(long, int, int, int)} 整体替换
+ * <p>
+ * 采集线程按线程固定的分段累计占用,分段累计超过 flushBytes (预算的 1/64 平均到各分段) 时才合并到全局计数,
+ * 远离水位线时判断只读取全局计数;全局计数加上各分段最大未合并量可能越过水位线时逐段汇总,水位线判断保持精确
+ *
+ * @author einsitang
+ */
+public class MemoryBudget {
+
+  // 分段数上限
+  private static final int MAX_STRIPES = 64;
+
+  // 各分段未合并的占用合计不超过预算的 1/64
+  private static final int SLACK_DIVISOR = 64;
+
+  private volatile Limits limits;
+
+  /**
+   * 已合并的占用,发送线程的释放直接计入
+   */
+  private final AtomicLong reconciledBytes = new AtomicLong();
+
+  private final Stripe[] stripes;
+
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
+  private final ThreadLocal<Stripe> threadStripe = ThreadLocal.withInitial(this::assignStripe);
+
+  private final LongAdder sampledEvents = new LongAdder();
+
+  private final LongAdder droppedLowLevelEvents = new LongAdder();
+
+  private final LongAdder droppedFullEvents = new LongAdder();
+
+  /**
+   * @param maxBytes          预算上限
+   * @param sampleWatermark   开始采样的水位线 (百分比)
+   * @param dropWatermark     开始丢弃低级别日志的水位线 (百分比)
+   * @param sampleRate        采样阶段每 sampleRate 条保留 1 条
+   */
+  public MemoryBudget(long maxBytes, int sampleWatermark, int dropWatermark, int sampleRate) {
+    this(maxBytes, sampleWatermark, dropWatermark, sampleRate,
+        Math.min(MAX_STRIPES, 2 * Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * @param maxBytes          预算上限
+   * @param sampleWatermark   开始采样的水位线 (百分比)
+   * @param dropWatermark     开始丢弃低级别日志的水位线 (百分比)
+   * @param sampleRate        采样阶段每 sampleRate 条保留 1 条
+   * @param stripes           采集线程的计数分段数
+   */
+  public MemoryBudget(long maxBytes, int sampleWatermark, int dropWatermark, int sampleRate,
+      int stripes) {
+    this.stripes = new Stripe[Math.max(1, Math.min(MAX_STRIPES, stripes))];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    reconfigure(maxBytes, sampleWatermark, dropWatermark, sampleRate);
+  }
+
+  /**
+   * 原子替换预算与水位线,已缓存的日志继续计入
+   *
+   * @param maxBytes        预算上限
+   * @param sampleWatermark 开始采样的水位线 (百分比)
+   * @param dropWatermark   开始丢弃低级别日志的水位线 (百分比),小于 sampleWatermark 时取 sampleWatermark
+   * @param sampleRate      采样阶段每 sampleRate 条保留 1 条
+   */
+  public void reconfigure(long maxBytes, int sampleWatermark, int dropWatermark,
+      int sampleRate) {
+    this.limits = new Limits(maxBytes, sampleWatermark, Math.max(sampleWatermark, dropWatermark),
+        sampleRate, stripes.length);
+  }
+
+  /**
+   * 采集前判断是否接收该级别的日志
+   *
+   * @param level 日志级别
+   * @return 是否接收
+   */
+  public boolean admit(Level level) {
+    Limits limits = this.limits;
+    long used = reconciledBytes.get();
+    if (used + limits.slackBytes < limits.sampleBytes) {
+      return true;
+    }
+    used = sum(used);
+    if (used < limits.sampleBytes) {
+      return true;
+    }
+    if (used >= limits.maxBytes) {
+      droppedFullEvents.increment();
+      return false;
+    }
+    if (level.isGreaterOrEqual(Level.WARN)) {
+      return true;
+    }
+    if (used >= limits.dropLowLevelBytes) {
+      droppedLowLevelEvents.increment();
+      return false;
+    }
+    if (ThreadLocalRandom.current().nextInt(limits.sampleRate) != 0) {
+      sampledEvents.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * 采集线程计入占用,累计到当前线程的分段
+   *
+   * @param bytes 字节数
+   */
+  public void acquire(long bytes) {
+    Stripe stripe = threadStripe.get();
+    if (stripe.addAndGet(bytes) >= limits.flushBytes) {
+      reconciledBytes.addAndGet(stripe.getAndSet(0));
+    }
+  }
+
+  /**
+   * 释放占用 (发送线程按数据包调用),直接计入全局计数
+   *
+   * @param bytes 字节数
+   */
+  public void release(long bytes) {
+    reconciledBytes.addAndGet(-bytes);
+  }
+
+  public long getUsedBytes() {
+    return sum(reconciledBytes.get());
+  }
+
+  /**
+   * 汇总各分段未合并的占用 (只读,不清零)
+   */
+  private long sum(long reconciled) {
+    long used = reconciled;
+    for (Stripe stripe : stripes) {
+      used += stripe.get();
+    }
+    return used;
+  }
+
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  private Stripe assignStripe() {
+    return stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)];
+  }
+
+  public long getMaxBytes() {
+    return limits.maxBytes;
+  }
+
+  public int getSampleWatermark() {
+    return limits.sampleWatermark;
+  }
+
+  public int getDropWatermark() {
+    return limits.dropWatermark;
+  }
+
+  public int getSampleRate() {
+    return limits.sampleRate;
+  }
+
+  public Stage getStage() {
+    Limits limits = this.limits;
+    long used = getUsedBytes();
+    if (used >= limits.maxBytes) {
+      return Stage.FULL;
+    }
+    if (used >= limits.dropLowLevelBytes) {
+      return Stage.DROP_LOW_LEVEL;
+    }
+    if (used >= limits.sampleBytes) {
+      return Stage.SAMPLING;
+    }
+    return Stage.NORMAL;
+  }
+
+  /**
+   * 采样阶段被丢弃的日志数
+   */
+  public long getSampledEvents() {
+    return sampledEvents.sum();
+  }
+
+  /**
+   * 低级别日志被丢弃的日志数
+   */
+  public long getDroppedLowLevelEvents() {
+    return droppedLowLevelEvents.sum();
+  }
+
+  /**
+   * 预算耗尽被丢弃的日志数
+   */
+  public long getDroppedFullEvents() {
+    return droppedFullEvents.sum();
+  }
+
+  private static final class Limits {
+
+    private final long maxBytes;
+
+    private final int sampleWatermark;
+
+    private final int dropWatermark;
+
+    private final long sampleBytes;
+
+    private final long dropLowLevelBytes;
+
+    private final int sampleRate;
+
+    /**
+     * 分段累计超过该值时合并到全局计数
+     */
+    private final long flushBytes;
+
+    /**
+     * 各分段最多未合并的占用
+     */
+    private final long slackBytes;
+
+    private Limits(long maxBytes, int sampleWatermark, int dropWatermark, int sampleRate,
+        int stripes) {
+      this.maxBytes = maxBytes;
+      this.sampleWatermark = sampleWatermark;
+      this.dropWatermark = dropWatermark;
+      this.sampleBytes = maxBytes * sampleWatermark / 100;
+      this.dropLowLevelBytes = maxBytes * dropWatermark / 100;
+      this.sampleRate = Math.max(1, sampleRate);
+      this.flushBytes = Math.max(1, maxBytes / SLACK_DIVISOR / stripes);
+      this.slackBytes = flushBytes * stripes;
+    }
+  }
+
+  /**
+   * 单个分段的未合并占用,填充避免相邻分段伪共享
+   */
+  @SuppressWarnings("unused")
+  private static final class Stripe extends AtomicLong {
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+  }
+
+  public enum Stage {
+
+    /**
+     * 正常
+     */
+    NORMAL,
+
+    /**
+     * 低级别日志采样
+     */
+    SAMPLING,
+
+    /**
+     * 丢弃低级别日志
+     */
+    DROP_LOW_LEVEL,
+
+    /**
+     * 丢弃全部日志
+     */
+    FULL
+  }
+}
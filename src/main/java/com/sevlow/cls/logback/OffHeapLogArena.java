@@ -0,0 +1,233 @@
+package com.sevlow.cls.logback;
+
+import cls.Cls.Log;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 堆外日志缓存
+ * <p>
+ * 启动时一次性分配固定容量的直接内存 (按 slab 切分),日志在采集时序列化为 CLS Log 后写入 slab,
+ * 缓存期间不再占用堆内存,避免大量等待发送的日志对象被晋升到老年代
+ * <p>
+ * 记录格式 : [int 长度][Log 序列化字节];slab 写满后进入待读队列,读完后回收复用。容量用尽时拒绝写入
+ * <p>
+ * 与 {@link StripedLogBuffer} 相同,每个线程固定写入一个分段 (按线程轮流分配),各分段有独立的锁与写入 slab,
+ * 空闲 slab 在分段间共享;分段数不少于写入线程数时序列化与复制基本无竞争。同一线程的日志顺序不变
+ * <p>
+ * 写入可由任意线程调用,读取只允许发送线程调用 (poll 方法串行执行)
+ *
+ * @author einsitang
+ */
+public class OffHeapLogArena {
+
+  // 每个 slab 2MB,可容纳最大的单条日志 (1MB)
+  public static final int SLAB_BYTES = 2 * 1024 * 1024;
+
+  private static final int HEADER_BYTES = 4;
+
+  private final Queue<Slab> free = new ConcurrentLinkedQueue<>();
+
+  private final Stripe[] stripes;
+
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
+  private final ThreadLocal<Stripe> threadStripe = ThreadLocal.withInitial(this::assignStripe);
+
+  private final int capacity;
+
+  private int pollCursor;
+
+  /**
+   * @param capacityBytes 容量,按 slab 向上取整,最少 2 个 slab
+   */
+  public OffHeapLogArena(long capacityBytes) {
+    this(capacityBytes, 1);
+  }
+
+  /**
+   * @param capacityBytes 容量,按 slab 向上取整,最少 2 个 slab
+   * @param stripes       分段数,不超过 slab 数
+   */
+  public OffHeapLogArena(long capacityBytes, int stripes) {
+    int slabs = (int) Math.max(2, (capacityBytes + SLAB_BYTES - 1) / SLAB_BYTES);
+    for (int i = 0; i < slabs; i++) {
+      free.add(new Slab(ByteBuffer.allocateDirect(SLAB_BYTES)));
+    }
+    this.capacity = slabs * SLAB_BYTES;
+    this.stripes = new Stripe[Math.max(1, Math.min(stripes, slabs))];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * 序列化并写入当前线程的分段
+   *
+   * @param log 日志
+   * @return 是否写入,容量用尽或单条日志超过 slab 时返回 false
+   */
+  public boolean append(Log log) {
+    int size = log.getSerializedSize();
+    if (HEADER_BYTES + size > SLAB_BYTES) {
+      return false;
+    }
+    return threadStripe.get().append(log, size);
+  }
+
+  /**
+   * 按分段轮流取出日志 (同一分段内按写入顺序),复制到堆内 (发送线程随即编码,生命周期很短)
+   *
+   * @param out        取出的记录 (Log 序列化字节)
+   * @param maxRecords 最多取出条数
+   * @param maxBytes   最多取出字节数,软限制,最多超出一条
+   * @return 取出的字节数
+   */
+  public synchronized long poll(List<byte[]> out, int maxRecords, long maxBytes) {
+    long bytes = 0;
+    int start = out.size();
+    for (int i = 0; i < stripes.length; i++) {
+      int taken = out.size() - start;
+      if (taken >= maxRecords || bytes >= maxBytes) {
+        break;
+      }
+      Stripe stripe = stripes[pollCursor];
+      bytes += stripe.poll(out, maxRecords - taken, maxBytes - bytes);
+      if (stripe.records == 0) {
+        // 当前分段已取空,下次从下一个分段开始,避免某个线程的日志长期滞留
+        pollCursor = (pollCursor + 1) % stripes.length;
+      }
+    }
+    return bytes;
+  }
+
+  public boolean isEmpty() {
+    for (Stripe stripe : stripes) {
+      if (stripe.records > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.records;
+    }
+    return size;
+  }
+
+  public long getUsedBytes() {
+    long usedBytes = 0;
+    for (Stripe stripe : stripes) {
+      usedBytes += stripe.usedBytes;
+    }
+    return usedBytes;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  private Stripe assignStripe() {
+    return stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)];
+  }
+
+  private final class Stripe {
+
+    /**
+     * 待读 slab,最后一个为正在写入的 slab
+     */
+    private final ArrayDeque<Slab> filled = new ArrayDeque<>();
+
+    private Slab writing;
+
+    private volatile long usedBytes;
+
+    private volatile int records;
+
+    synchronized boolean append(Log log, int size) {
+      int recordBytes = HEADER_BYTES + size;
+      if (writing == null || writing.buffer.remaining() < recordBytes) {
+        Slab next = free.poll();
+        if (next == null) {
+          return false;
+        }
+        writing = next;
+        filled.add(next);
+      }
+      ByteBuffer buffer = writing.buffer;
+      buffer.putInt(size);
+      ByteBuffer target = buffer.slice();
+      target.limit(size);
+      try {
+        log.writeTo(CodedOutputStream.newInstance(target));
+      } catch (IOException e) {
+        // 直接写入 ByteBuffer,大小已预先计算,不会发生
+        buffer.position(buffer.position() - HEADER_BYTES);
+        return false;
+      }
+      buffer.position(buffer.position() + size);
+      usedBytes += recordBytes;
+      records++;
+      return true;
+    }
+
+    synchronized long poll(List<byte[]> out, int maxRecords, long maxBytes) {
+      long bytes = 0;
+      int count = 0;
+      while (count < maxRecords && bytes < maxBytes && records > 0) {
+        Slab head = filled.peek();
+        ByteBuffer buffer = head.buffer;
+        int size = buffer.getInt(head.readPosition);
+        byte[] record = new byte[size];
+        ByteBuffer source = buffer.duplicate();
+        source.position(head.readPosition + HEADER_BYTES);
+        source.get(record);
+        head.readPosition += HEADER_BYTES + size;
+        out.add(record);
+        bytes += size;
+        count++;
+        usedBytes -= HEADER_BYTES + size;
+        records--;
+        if (head.readPosition == buffer.position()) {
+          // 已读完的 slab 立即回收,空闲分段不占用 slab
+          filled.poll();
+          if (head == writing) {
+            writing = null;
+          }
+          head.reset();
+          free.add(head);
+        }
+      }
+      return bytes;
+    }
+  }
+
+  private static final class Slab {
+
+    private final ByteBuffer buffer;
+
+    private int readPosition;
+
+    private Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    private void reset() {
+      buffer.clear();
+      readPosition = 0;
+    }
+  }
+}
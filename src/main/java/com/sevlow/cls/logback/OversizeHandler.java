@@ -0,0 +1,224 @@
+package com.sevlow.cls.logback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 超大日志处理
+ * <p>
+ * 在采集阶段根据估算大小决定是否截断或拆分,避免单条超大日志导致整个批次被服务端拒绝
+ * <p>
+ * TRUNCATE : 超出字段上限的内容被截断,并附加截断标记
+ * <p>
+ * CHUNK : 超出字段上限的内容被拆分为多条日志,使用相同的 chunkId 关联
+ *
+ * @author einsitang
+ */
+public class OversizeHandler {
+
+  /**
+   * 截断标记预留字节数
+   */
+  private static final int MARKER_RESERVED_BYTES = 48;
+
+  private final Policy policy;
+
+  private final int maxFieldBytes;
+
+  private final int maxEventBytes;
+
+  private final int maxChunks;
+
+  public OversizeHandler(Policy policy, int maxFieldBytes, int maxEventBytes, int maxChunks) {
+    this.policy = policy;
+    this.maxFieldBytes = maxFieldBytes;
+    this.maxEventBytes = maxEventBytes;
+    this.maxChunks = maxChunks;
+  }
+
+  public int getMaxEventBytes() {
+    return maxEventBytes;
+  }
+
+  /**
+   * 廉价判断日志是否超出上限,绝大多数日志只需比较字符数
+   * <p>
+   * 调用前需先设置 {@link LogItem#getEstimatedBytes()}
+   *
+   * @param logItem 日志
+   * @return 是否需要处理
+   */
+  public boolean isOversize(LogItem logItem) {
+    if (!LogSizes.fits(logItem.getFormattedMessage(), maxFieldBytes)
+        || !LogSizes.fits(logItem.getThrowable(), maxFieldBytes)) {
+      return true;
+    }
+    for (String value : logItem.getMdcFields().values()) {
+      if (!LogSizes.fits(value, maxFieldBytes)) {
+        return true;
+      }
+    }
+    if (logItem.getStructuredFields() != null) {
+      for (String value : logItem.getStructuredFields().values()) {
+        if (!LogSizes.fits(value, maxFieldBytes)) {
+          return true;
+        }
+      }
+    }
+    return logItem.getEstimatedBytes() > maxEventBytes;
+  }
+
+  /**
+   * 处理超大日志
+   *
+   * @param logItem 日志
+   * @return 处理后的日志,CHUNK 策略下可能为多条
+   */
+  public List<LogItem> handle(LogItem logItem) {
+    limitFields(logItem.getMdcFields());
+    if (logItem.getStructuredFields() != null) {
+      limitFields(logItem.getStructuredFields());
+    }
+
+    List<LogItem> items;
+    if (policy == Policy.CHUNK) {
+      items = chunk(logItem);
+    } else {
+      logItem.setFormattedMessage(limit(logItem.getFormattedMessage()));
+      logItem.setThrowable(limit(logItem.getThrowable()));
+      items = Collections.singletonList(logItem);
+    }
+
+    for (LogItem item : items) {
+      limitEvent(item);
+      item.setEstimatedBytes(LogSizes.estimate(item, maxEventBytes));
+    }
+    return items;
+  }
+
+  private void limitFields(Map<String, String> fields) {
+    for (Map.Entry<String, String> entry : fields.entrySet()) {
+      if (!LogSizes.fits(entry.getValue(), maxFieldBytes)) {
+        entry.setValue(truncate(entry.getValue(), maxFieldBytes));
+      }
+    }
+  }
+
+  private List<LogItem> chunk(LogItem logItem) {
+    List<String> messages = split(logItem.getFormattedMessage());
+    List<String> throwables = split(logItem.getThrowable());
+    int chunkCount = Math.max(messages.size(), throwables.size());
+    if (chunkCount <= 1) {
+      return Collections.singletonList(logItem);
+    }
+
+    String chunkId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    List<LogItem> items = new ArrayList<>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      LogItem item = i == 0 ? logItem : chunkOf(logItem);
+      item.setFormattedMessage(i < messages.size() ? messages.get(i) : "");
+      item.setThrowable(i < throwables.size() ? throwables.get(i) : null);
+      item.setChunkId(chunkId);
+      item.setChunkIndex(i);
+      item.setChunkCount(chunkCount);
+      items.add(item);
+    }
+    return items;
+  }
+
+  /**
+   * 分片日志只保留用于关联和检索的基础字段
+   */
+  private LogItem chunkOf(LogItem logItem) {
+    LogItem item = new LogItem();
+    item.setTime(logItem.getTime());
+    item.setDatetime(logItem.getDatetime());
+    item.setLevel(logItem.getLevel());
+    item.setLoggerName(logItem.getLoggerName());
+    item.setThreadName(logItem.getThreadName());
+    item.setIp(logItem.getIp());
+    item.setHostname(logItem.getHostname());
+    item.setMasked(logItem.isMasked());
+    return item;
+  }
+
+  private List<String> split(String value) {
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    if (LogSizes.fits(value, maxFieldBytes)) {
+      return Collections.singletonList(value);
+    }
+    List<String> pieces = new ArrayList<>();
+    int begin = 0;
+    int length = value.length();
+    while (begin < length && pieces.size() < maxChunks - 1) {
+      int end = LogSizes.utf8Boundary(value, begin, maxFieldBytes);
+      pieces.add(value.substring(begin, end));
+      begin = end;
+    }
+    if (begin < length) {
+      pieces.add(limit(value.substring(begin)));
+    }
+    return pieces;
+  }
+
+  /**
+   * 字段仍可能因 MDC 等原因导致整条日志超限,依次压缩 throwable 与 formattedMessage (均按 UTF-8 字节数计算)
+   */
+  private void limitEvent(LogItem item) {
+    int overflow = LogSizes.measure(item) - maxEventBytes;
+    if (overflow <= 0) {
+      return;
+    }
+    String throwable = item.getThrowable();
+    if (throwable != null) {
+      int keep = Math.max(0, LogSizes.utf8Length(throwable) - overflow);
+      item.setThrowable(truncate(throwable, keep));
+      overflow = LogSizes.measure(item) - maxEventBytes;
+    }
+    String message = item.getFormattedMessage();
+    if (overflow > 0 && message != null) {
+      int keep = Math.max(0, LogSizes.utf8Length(message) - overflow);
+      item.setFormattedMessage(truncate(message, keep));
+    }
+  }
+
+  private String limit(String value) {
+    if (LogSizes.fits(value, maxFieldBytes)) {
+      return value;
+    }
+    return truncate(value, maxFieldBytes);
+  }
+
+  private static String truncate(String value, int maxBytes) {
+    int end = LogSizes.utf8Boundary(value, 0, Math.max(0, maxBytes - MARKER_RESERVED_BYTES));
+    return value.substring(0, end)
+        .concat("...[truncated, ")
+        .concat(String.valueOf(LogSizes.utf8Length(value)))
+        .concat(" bytes]");
+  }
+
+  public enum Policy {
+
+    /**
+     * 截断
+     */
+    TRUNCATE,
+
+    /**
+     * 拆分
+     */
+    CHUNK;
+
+    public static Policy of(String name) {
+      if (name != null && CHUNK.name().equalsIgnoreCase(name.trim())) {
+        return CHUNK;
+      }
+      return TRUNCATE;
+    }
+  }
+}
@@ -1,19 +1,20 @@
 package com.sevlow.cls.logback;
 
+import cls.Cls.Log;
+import cls.Cls.LogGroup;
 import cls.Cls.LogGroupList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.collect.Maps;
 import com.sevlow.cls.ConsoleLog;
 import com.sevlow.cls.QcloudClsSignature;
 import com.sevlow.cls.config.ClsConfig;
 import com.squareup.okhttp.Callback;
-import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.UnknownHostException;
@@ -21,18 +22,24 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import lombok.NonNull;
-import net.jpountz.lz4.LZ4BlockInputStream;
-import net.jpountz.lz4.LZ4BlockOutputStream;
-import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
 
 /**
  * @author einsitang
@@ -43,19 +50,75 @@ public class Producer {
 
   private static final String API_UPLOAD = "/structuredlog";
 
-  private static final OkHttpClient HTTP_CLIENT = new OkHttpClient();
-
   private static final MediaType PROTOBUF = MediaType.parse("application/x-protobuf");
 
+  // 5xx 重试间隔,按重试次数递增
+  private static final long RETRY_BASE_MILLIS = 500;
+
+  // 限流退避 1 秒起,最长 60 秒
+  private static final long BASE_THROTTLE_MILLIS = 1_000;
+  private static final long MAX_THROTTLE_MILLIS = 60_000;
+  private static final int MAX_THROTTLE_SHIFT = 7;
+
   private final ClsConfig config;
 
   private final ConsoleLog consoleLog;
 
-  private static boolean IS_INITIALIZED = false;
+  private final OkHttpClient httpClient;
+
+  private final CompressBuffers compressBuffers;
+
+  private final CircuitBreaker circuitBreaker;
+
+  /**
+   * 上报地址自动选择,为 null 时使用 config 中的固定地址
+   */
+  private volatile EndpointSelector endpointSelector;
+
+  /**
+   * 延迟重发 (5xx 重试与限流退避)
+   */
+  private final ScheduledExecutorService scheduler;
+
+  private final ConcurrentHashMap<String, TopicBackoff> backoffs = new ConcurrentHashMap<>();
+
+  private final LongAdder rejectedLogs = new LongAdder();
+
+  private volatile ClsError fatalError;
+
+  /**
+   * 可在运行时调整的重试次数与压缩方式
+   */
+  private volatile int retries;
+
+  private volatile boolean compress = true;
+
+  private final int throttleRetries;
 
   public Producer(ClsConfig config) {
+    this(config, new OkHttpClient(), new CompressBuffers(),
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("cls-producer-retry-%d").build()));
+  }
+
+  /**
+   * @param config          账号配置
+   * @param httpClient      http 连接 (可在多个 Producer 间共享)
+   * @param compressBuffers 压缩缓冲区 (可在多个 Producer 间共享)
+   * @param scheduler       延迟重发线程 (可在多个 Producer 间共享)
+   */
+  public Producer(ClsConfig config, OkHttpClient httpClient, CompressBuffers compressBuffers,
+      ScheduledExecutorService scheduler) {
     this.config = config;
     this.consoleLog = new ConsoleLog(CLASS_NAME, config.isDebug());
+    this.httpClient = httpClient;
+    this.compressBuffers = compressBuffers;
+    this.scheduler = scheduler;
+    this.retries = config.getRetries();
+    this.throttleRetries = Math.max(0, config.getThrottleRetries());
+    this.circuitBreaker = new CircuitBreaker(config.getCircuitFailureThreshold(),
+        config.getCircuitFailureRate(), config.getCircuitWindowSize(),
+        config.getCircuitOpenMillis());
     trySSlDisable();
   }
 
@@ -63,7 +126,7 @@ public class Producer {
    * 如果debug模式开启，则关闭ssl校验
    */
   private void trySSlDisable() {
-    if (config.isDebug() && !IS_INITIALIZED) {
+    if (config.isDebug()) {
       X509TrustManager xtm = new X509TrustManager() {
         @Override
         public void checkClientTrusted(X509Certificate[] chain, String authType) {
@@ -94,9 +157,8 @@ public class Producer {
       };
 
       assert sslContext != null;
-      HTTP_CLIENT.setSslSocketFactory(sslContext.getSocketFactory());
-      HTTP_CLIENT.setHostnameVerifier(DO_NOT_VERIFY);
-      IS_INITIALIZED = true;
+      httpClient.setSslSocketFactory(sslContext.getSocketFactory());
+      httpClient.setHostnameVerifier(DO_NOT_VERIFY);
     }
   }
 
@@ -117,7 +179,7 @@ public class Producer {
     if (formatedHeaders == null) {
       formatedHeaders = Maps.newHashMap();
     }
-    formatedHeaders.put("Host", config.getHost());
+    formatedHeaders.putIfAbsent("Host", config.getHost());
 
     String sign = QcloudClsSignature
         .buildSignature(config.getSecretId(), config.getSecretKey(), method, uri,
@@ -127,142 +189,513 @@ public class Producer {
     return sign;
   }
 
-  public void lz4Upload(String topicId, LogGroupList lgl) throws IOException {
+  /**
+   * 申请上报许可,熔断期间调用方应跳过构建与压缩数据包
+   *
+   * @return 上报许可
+   */
+  public CircuitBreaker.Permit acquire() {
+    return circuitBreaker.acquire();
+  }
 
-    String url = "https://".concat(config.getHost())
-        .concat(API_UPLOAD).concat("?topic_id=").concat(topicId);
+  /**
+   * 归还未使用的上报许可,申请许可后没有调用上传时 (没有数据或构建数据包失败) 必须调用
+   *
+   * @param permit {@link #acquire()} 返回的许可
+   */
+  public void release(CircuitBreaker.Permit permit) {
+    circuitBreaker.release(permit);
+  }
 
-    String method = "POST";
+  public CircuitBreaker.State getCircuitState() {
+    return circuitBreaker.getState();
+  }
 
-    Map<String, String> formatedParameters = Maps.newHashMap();
-    formatedParameters.put("topic_id", topicId);
-    Map<String, String> formatedHeaders = Maps.newHashMap();
+  public void setEndpointSelector(EndpointSelector endpointSelector) {
+    this.endpointSelector = endpointSelector;
+  }
 
-    formatedHeaders.put("x-cls-compress-type", "lz4");
-    formatedHeaders.put("Host", this.config.getHost());
+  public EndpointSelector getEndpointSelector() {
+    return endpointSelector;
+  }
 
-    String authorization = this.sign(method, API_UPLOAD, formatedParameters, formatedHeaders);
+  public int getRetries() {
+    return retries;
+  }
 
-//    log.debug("压缩前 : {}", lgl.toByteArray().length);
-    byte[] data = lz4com(lgl.toByteArray());
-//    log.debug("压缩后(lz4) : {}", data.length);
+  /**
+   * @param retries 可重试错误的最大重试次数,对之后的失败生效
+   */
+  public void setRetries(int retries) {
+    this.retries = Math.max(0, retries);
+  }
 
-    Request request = new Request.Builder()
-        .header("Authorization", authorization)
-        .header("x-cls-compress-type", "lz4")
-        .url(url)
-        .method(method, RequestBody.create(PROTOBUF, data))
-        .build();
+  public boolean isCompress() {
+    return compress;
+  }
 
-//    Response response = HTTP_CLIENT.newCall(request).execute();
-//    String body = response.body().string();
-//    log.debug("upload response -> http status code : {}", response.code());
-//    log.debug("upload response -> body : {}", body);
-    HTTP_CLIENT.newCall(request).enqueue(new Callback() {
-
-      private int execCount = 0;
-
-      @Override
-      public void onFailure(Request request, IOException e) {
-//        log.info("failure send log");
-//        log.info(e.getMessage(), e);
-//        debugQueueInfo();
-        consoleLog.log("failure send log : ".concat(e.getMessage()));
-        if (e instanceof UnknownHostException) {
-          // unknown hosts , retry
-          // timeout , retry
-          this.execCount++;
-          if (execCount <= Producer.this.config.getRetries()) {
-            consoleLog.log("正在重试 : " + this.execCount + " / " + Producer.this.config.getRetries());
-            HTTP_CLIENT.newCall(request).enqueue(this);
-          }
-        }
+  /**
+   * @param compress 是否 lz4 压缩,对之后构建的请求生效
+   */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
 
-      }
+  /**
+   * 当前主题是否处于限流退避中,调用方应暂缓发送 (日志保留在缓存中)
+   *
+   * @param topicId 日志主题
+   * @return 是否退避中
+   */
+  public boolean isThrottled(String topicId) {
+    TopicBackoff backoff = backoffs.get(topicId);
+    return backoff != null && System.currentTimeMillis() < backoff.until;
+  }
 
-      @Override
-      public void onResponse(Response response) throws IOException {
-        String body = response.body().string();
-//        log.debug("upload response -> http status code : {}", response.code());
-//        log.debug("upload response -> body : {}", body);
-//        debugQueueInfo();
-        consoleLog.log("status code -> ".concat(String.valueOf(response.code())));
-        consoleLog.log("body -> ".concat(body));
-      }
-    });
+  /**
+   * @return 导致停止上报的错误 (鉴权失败 / 主题不存在),正常为 null
+   */
+  public ClsError getFatalError() {
+    return fatalError;
+  }
 
+  /**
+   * @return 被服务端拒绝或重试耗尽后放弃的日志数
+   */
+  public long getRejectedLogs() {
+    return rejectedLogs.sum();
   }
 
-  private byte[] lz4com(byte[] data) {
-    int decompressedLength = data.length;
-    LZ4Factory factory = LZ4Factory.fastestInstance();
-    LZ4Compressor compressor = factory.fastCompressor();
-    int maxCompressedLength = compressor.maxCompressedLength(decompressedLength);
-    byte[] compressed = new byte[maxCompressedLength];
-    int compressedLength = compressor
-        .compress(data, 0, decompressedLength, compressed, 0, maxCompressedLength);
-    return Arrays.copyOf(compressed, compressedLength);
+  /**
+   * 上传日志,根据响应分类处理 : 5xx 有限次重试并计入熔断 (熔断期间等待探测时再重试);数据包过大时拆分重发;限流时当前主题退避后重发;
+   * 鉴权失败或主题不存在时停止上报
+   *
+   * @param topicId 日志主题
+   * @param lgl     日志
+   * @return 数据包最终送达或放弃时完成,不会异常完成
+   * @throws IOException 序列化异常
+   */
+  public CompletableFuture<DeliveryResult> lz4Upload(String topicId, LogGroupList lgl)
+      throws IOException {
+    return lz4Upload(topicId, lgl, null);
   }
 
   /**
-   * lz4 压缩
+   * 上传日志并在数据包最终送达或放弃后回调 (拆分重发的数据包在全部完成后回调一次)
+   * <p>
+   * 构建请求失败时直接抛出异常,不回调
    *
-   * @param data 压缩前数据
-   * @return 压缩后数据
-   * @throws IOException IO异常
+   * @param topicId  日志主题
+   * @param lgl      日志
+   * @param listener 完成回调,可为 null
+   * @return 数据包最终送达或放弃时完成 (在回调之后),不会异常完成
+   * @throws IOException 序列化异常
    */
-  private byte[] lz4Compress(byte[] data) throws IOException {
+  public CompletableFuture<DeliveryResult> lz4Upload(String topicId, LogGroupList lgl,
+      DeliveryListener listener) throws IOException {
+    Delivery delivery = new Delivery(listener);
+    if (fatalError != null) {
+      delivery.reject(lgl);
+      return delivery.future;
+    }
+    Request request;
     try {
-      //1.zip压缩
-      ByteArrayOutputStream baOs = new ByteArrayOutputStream();
-      LZ4BlockOutputStream lz4Os = new LZ4BlockOutputStream(baOs);
-      lz4Os.write(data);
-      lz4Os.flush();
-      lz4Os.close();//关闭流 输出缓存区内容  否则解压时eof异常
-
-      //2.获取并转义压缩内容
-      return baOs.toByteArray();
-    } catch (IOException e) {
+      request = buildRequest(topicId, lgl);
+    } catch (IOException | RuntimeException e) {
+      // 释放可能持有的探测许可
+      circuitBreaker.onFailure();
       throw e;
     }
+    delivery.attempt();
+    httpClient.newCall(request).enqueue(new UploadCallback(topicId, lgl, delivery));
+    return delivery.future;
+  }
 
+  private void onUploadFailure() {
+    circuitBreaker.onFailure();
+    EndpointSelector selector = this.endpointSelector;
+    if (selector != null) {
+      selector.reportFailure();
+    }
   }
 
   /**
-   * lz4 解压
+   * 记录限流,退避时间指数增长 (优先使用 Retry-After)
    *
-   * @param data 压缩后数据
-   * @return 还原数据
-   * @throws IOException IO异常
+   * @return 退避时间 (毫秒)
    */
-  private byte[] lz4Uncompress(byte[] data) throws IOException {
-    //1.zip解压缩
+  private long throttle(String topicId, String retryAfter) {
+    TopicBackoff backoff = backoffs.computeIfAbsent(topicId, k -> new TopicBackoff());
+    long delay;
+    synchronized (backoff) {
+      backoff.attempts = Math.min(backoff.attempts + 1, MAX_THROTTLE_SHIFT);
+      delay = Math.min(MAX_THROTTLE_MILLIS, BASE_THROTTLE_MILLIS << (backoff.attempts - 1));
+      long serverDelay = parseRetryAfter(retryAfter);
+      if (serverDelay > 0) {
+        delay = Math.min(MAX_THROTTLE_MILLIS, serverDelay);
+      } else {
+        // 抖动,避免多个实例同时恢复
+        delay += ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+      }
+      backoff.until = Math.max(backoff.until, System.currentTimeMillis() + delay);
+    }
+    return delay;
+  }
+
+  private static long parseRetryAfter(String retryAfter) {
+    if (retryAfter == null) {
+      return 0;
+    }
+    try {
+      return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private void schedule(Runnable task, long delayMillis, LogGroupList lgl, Delivery delivery) {
     try {
-      //1.zip解压缩
-      ByteArrayOutputStream baOs = new ByteArrayOutputStream();
-      ByteArrayInputStream baIs = new ByteArrayInputStream(data);
-      LZ4BlockInputStream zipIs = new LZ4BlockInputStream(baIs);
-
-      byte[] temp = new byte[256];
-      int n;
-      while ((n = zipIs.read(temp)) >= 0) {
-        baOs.write(temp, 0, n);
+      scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      consoleLog.log("已停止,放弃重发 " + countLogs(lgl) + " 条日志");
+      delivery.reject(lgl);
+    }
+  }
+
+  private void resend(String topicId, LogGroupList lgl, UploadCallback callback) {
+    resend(topicId, lgl, callback, CircuitBreaker.Permit.NORMAL);
+  }
+
+  /**
+   * @param permit 重发前申请的许可,没有发出请求时归还
+   */
+  private void resend(String topicId, LogGroupList lgl, UploadCallback callback,
+      CircuitBreaker.Permit permit) {
+    if (fatalError != null) {
+      circuitBreaker.release(permit);
+      callback.delivery.reject(lgl);
+      return;
+    }
+    try {
+      Request request = buildRequest(topicId, lgl);
+      callback.delivery.attempt();
+      httpClient.newCall(request).enqueue(callback);
+    } catch (IOException | RuntimeException e) {
+      consoleLog.log("重发失败 : ".concat(String.valueOf(e.getMessage())));
+      circuitBreaker.release(permit);
+      callback.delivery.reject(lgl);
+    }
+  }
+
+  /**
+   * 熔断期间暂存可重试的数据包 (仍计入调用方的内存预算),到熔断到期时申请许可 : 放行 (探测请求或已恢复) 时重发,
+   * 否则继续等待;重试次数只在请求失败时累计
+   */
+  private void park(String topicId, LogGroupList lgl, UploadCallback callback) {
+    long delay = Math.max(RETRY_BASE_MILLIS, circuitBreaker.millisUntilProbe());
+    schedule(() -> {
+      CircuitBreaker.Permit permit = circuitBreaker.acquire();
+      if (permit == CircuitBreaker.Permit.NONE) {
+        park(topicId, lgl, callback);
+      } else {
+        resend(topicId, lgl, callback, permit);
+      }
+    }, delay, lgl, callback.delivery);
+  }
+
+  /**
+   * 数据包对半拆分,只有一条日志时无法拆分
+   *
+   * @return 拆分后的两个数据包,无法拆分为 null
+   */
+  static LogGroupList[] split(LogGroupList lgl) {
+    List<LogGroup> groups = lgl.getLogGroupListList();
+    if (groups.size() > 1) {
+      int half = groups.size() / 2;
+      return new LogGroupList[]{
+          LogGroupList.newBuilder().addAllLogGroupList(groups.subList(0, half)).build(),
+          LogGroupList.newBuilder().addAllLogGroupList(groups.subList(half, groups.size()))
+              .build()};
+    }
+    if (groups.isEmpty() || groups.get(0).getLogsCount() <= 1) {
+      return null;
+    }
+    LogGroup group = groups.get(0);
+    List<Log> logs = group.getLogsList();
+    int half = logs.size() / 2;
+    return new LogGroupList[]{
+        LogGroupList.newBuilder()
+            .addLogGroupList(group.toBuilder().clearLogs().addAllLogs(logs.subList(0, half)))
+            .build(),
+        LogGroupList.newBuilder()
+            .addLogGroupList(
+                group.toBuilder().clearLogs().addAllLogs(logs.subList(half, logs.size())))
+            .build()};
+  }
+
+  private static int countLogs(LogGroupList lgl) {
+    int count = 0;
+    for (LogGroup group : lgl.getLogGroupListList()) {
+      count += group.getLogsCount();
+    }
+    return count;
+  }
+
+  /**
+   * 单个数据包的上传回调,重试时复用以累计重试次数
+   */
+  private final class UploadCallback implements Callback {
+
+    private final String topicId;
+
+    private final LogGroupList lgl;
+
+    private final Delivery delivery;
+
+    private int execCount = 0;
+
+    private int throttledCount = 0;
+
+    private UploadCallback(String topicId, LogGroupList lgl, Delivery delivery) {
+      this.topicId = topicId;
+      this.lgl = lgl;
+      this.delivery = delivery;
+    }
+
+    /**
+     * 拆分后的数据包沿用原数据包已消耗的重试与限流重发次数
+     */
+    private UploadCallback(UploadCallback parent, LogGroupList lgl) {
+      this(parent.topicId, lgl, parent.delivery);
+      this.execCount = parent.execCount;
+      this.throttledCount = parent.throttledCount;
+    }
+
+    @Override
+    public void onFailure(Request request, IOException e) {
+      consoleLog.log("failure send log : ".concat(String.valueOf(e.getMessage())));
+      if (e instanceof UnknownHostException) {
+        // unknown hosts , retry
+        this.execCount++;
+        if (execCount <= retries) {
+          consoleLog.log("正在重试 : " + this.execCount + " / " + retries);
+          delivery.attempt();
+          httpClient.newCall(request).enqueue(this);
+          return;
+        }
       }
+      onUploadFailure();
+      delivery.reject(lgl);
+    }
 
-      return baOs.toByteArray();
-    } catch (IOException e) {
-      throw e;
+    @Override
+    public void onResponse(Response response) throws IOException {
+      String body = response.body().string();
+      int code = response.code();
+      consoleLog.log("status code -> ".concat(String.valueOf(code)));
+      if (code < 300) {
+        circuitBreaker.onSuccess();
+        backoffs.remove(topicId);
+        delivery.deliver(lgl, response.request().body().contentLength());
+        return;
+      }
+      ClsError error = ClsError.of(code, body);
+      consoleLog.log(error.toString());
+      switch (error.getKind()) {
+        case RETRYABLE:
+          onUploadFailure();
+          execCount++;
+          if (execCount > retries) {
+            delivery.reject(lgl);
+          } else if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+            // 熔断期间不重发,保留到放行探测请求时
+            park(topicId, lgl, this);
+          } else {
+            schedule(() -> resend(topicId, lgl, this), RETRY_BASE_MILLIS * execCount, lgl,
+                delivery);
+          }
+          break;
+        case TOO_LARGE:
+          circuitBreaker.onSuccess();
+          onTooLarge();
+          break;
+        case THROTTLED:
+          circuitBreaker.onSuccess();
+          long delay = throttle(topicId, response.header("Retry-After"));
+          throttledCount++;
+          if (throttledCount > throttleRetries) {
+            consoleLog.log("主题 " + topicId + " 限流重发 " + throttleRetries + " 次仍未成功,放弃");
+            delivery.reject(lgl);
+            break;
+          }
+          consoleLog.log("主题 " + topicId + " 限流,退避 " + delay + "ms 后重发 : "
+              + throttledCount + " / " + throttleRetries);
+          schedule(() -> resend(topicId, lgl, this), delay, lgl, delivery);
+          break;
+        case FATAL:
+          circuitBreaker.onSuccess();
+          fatalError = error;
+          delivery.reject(lgl);
+          break;
+        default:
+          circuitBreaker.onSuccess();
+          delivery.reject(lgl);
+          break;
+      }
+    }
+
+    private void onTooLarge() {
+      LogGroupList[] halves = split(lgl);
+      if (halves == null) {
+        consoleLog.log("单条日志超出服务端限制,放弃");
+        delivery.reject(lgl);
+        return;
+      }
+      delivery.split();
+      for (LogGroupList half : halves) {
+        resend(topicId, half, new UploadCallback(this, half));
+      }
     }
   }
 
+  private Request buildRequest(String topicId, LogGroupList lgl) throws IOException {
+    EndpointSelector selector = this.endpointSelector;
+    String baseUrl = selector == null ? config.getBaseUrl() : selector.current();
+    String url = baseUrl
+        .concat(API_UPLOAD).concat("?topic_id=").concat(topicId);
+    HttpUrl httpUrl = HttpUrl.parse(url);
+    if (httpUrl == null) {
+      throw new IOException("invalid endpoint : ".concat(baseUrl));
+    }
+    // 签名与请求使用同一个 Host (自定义地址的非默认端口也要计入)
+    String host = hostHeader(httpUrl);
+
+    String method = "POST";
+
+    Map<String, String> formatedParameters = Maps.newHashMap();
+    formatedParameters.put("topic_id", topicId);
+    Map<String, String> formatedHeaders = Maps.newHashMap();
+
+    boolean lz4 = this.compress;
+    if (lz4) {
+      formatedHeaders.put("x-cls-compress-type", "lz4");
+    }
+    formatedHeaders.put("Host", host);
+
+    String authorization = this.sign(method, API_UPLOAD, formatedParameters, formatedHeaders);
+
+//    log.debug("压缩前 : {}", lgl.toByteArray().length);
+    byte[] data = lz4 ? compressBuffers.lz4(lgl) : lgl.toByteArray();
+//    log.debug("压缩后(lz4) : {}", data.length);
+
+    Request.Builder builder = new Request.Builder()
+        .header("Host", host)
+        .header("Authorization", authorization);
+    if (lz4) {
+      builder.header("x-cls-compress-type", "lz4");
+    }
+    return builder
+        .url(httpUrl)
+        .method(method, RequestBody.create(PROTOBUF, data))
+        .build();
+  }
+
+  /**
+   * @return 与 OkHttp 默认值一致的 Host 请求头 : 默认端口时只有主机名
+   */
+  static String hostHeader(HttpUrl url) {
+    String host = url.host().contains(":") ? "[" + url.host() + "]" : url.host();
+    return url.port() == HttpUrl.defaultPort(url.scheme())
+        ? host : host + ":" + url.port();
+  }
+
   /**
-   * 打印队列信息 (debug)
+   * 数据包完成回调
    */
-  private void debugQueueInfo() {
-    Dispatcher dispatcher = HTTP_CLIENT.getDispatcher();
-    int queuedCallCount = dispatcher.getQueuedCallCount();
-    int runningCallCount = dispatcher.getRunningCallCount();
-//    log.debug("静候队列数 : {} / 执行队列数 : {}", queuedCallCount, runningCallCount);
+  public interface DeliveryListener {
+
+    /**
+     * @param deliveredLogs 送达的日志数
+     * @param rejectedLogs  放弃的日志数 (被拒绝、重试耗尽或已停止上报)
+     */
+    void onComplete(int deliveredLogs, int rejectedLogs);
+  }
+
+  /**
+   * 单个数据包的送达状态,拆分后的各部分全部完成时回调
+   */
+  private final class Delivery {
+
+    private final DeliveryListener listener;
+
+    private final CompletableFuture<DeliveryResult> future = new CompletableFuture<>();
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicInteger parts = new AtomicInteger(1);
+
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private Delivery(DeliveryListener listener) {
+      this.listener = listener;
+    }
+
+    /**
+     * 发出一个请求 (首次、重试或拆分后)
+     */
+    void attempt() {
+      attempts.incrementAndGet();
+    }
+
+    /**
+     * 一个部分拆分为两个
+     */
+    void split() {
+      parts.incrementAndGet();
+    }
+
+    void deliver(LogGroupList lgl, long requestBytes) {
+      delivered.addAndGet(countLogs(lgl));
+      bytes.addAndGet(Math.max(0, requestBytes));
+      complete();
+    }
+
+    void reject(LogGroupList lgl) {
+      int count = countLogs(lgl);
+      rejectedLogs.add(count);
+      rejected.addAndGet(count);
+      complete();
+    }
+
+    private void complete() {
+      if (parts.decrementAndGet() != 0) {
+        return;
+      }
+      try {
+        if (listener != null) {
+          listener.onComplete(delivered.get(), rejected.get());
+        }
+      } finally {
+        future.complete(new DeliveryResult(delivered.get(), rejected.get(), bytes.get(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), attempts.get()));
+      }
+    }
+  }
+
+  /**
+   * 主题限流退避状态
+   */
+  private static final class TopicBackoff {
+
+    private volatile long until;
+
+    private int attempts;
   }
 
 }
@@ -0,0 +1,458 @@
+package com.sevlow.cls.logback;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 敏感信息脱敏
+ * <p>
+ * 所有 literal / prefix 规则编译为一个 Aho-Corasick 自动机 (ASCII 字母不区分大小写),
+ * 与 digits 规则的连续数字识别在同一次遍历中完成,每个字段只扫描一遍;regex 只在命中的位置执行
+ * <p>
+ * 没有命中时返回原字符串,不产生复制。编译后不可变,可在多个发送线程中共享
+ *
+ * @author einsitang
+ */
+public final class SecretMasker {
+
+  private static final String DEFAULT_REPLACEMENT = "****";
+
+  // digits 规则最大长度
+  private static final int MAX_DIGITS = 64;
+
+  private static final int ASCII = 128;
+
+  /**
+   * 字符在自动机字母表中的下标,-1 表示不在字母表中 (回到初始状态)
+   */
+  private final int[] asciiIndex = new int[ASCII];
+
+  /**
+   * 非 ASCII 字符按升序排列,二分查找其下标 (otherIndexes) 以避免装箱
+   */
+  private char[] otherChars = new char[0];
+
+  private int[] otherIndexes = new int[0];
+
+  /**
+   * 状态转移表 : next[state][字母表下标]
+   */
+  private final int[][] next;
+
+  /**
+   * 在该状态结束的规则 (含 fail 链上的规则),没有则为 null
+   */
+  private final Rule[][] outputs;
+
+  /**
+   * 按长度索引的 digits 规则
+   */
+  private final Rule[][] digitRules;
+
+  private SecretMasker(int[][] next, Rule[][] outputs, Rule[][] digitRules) {
+    this.next = next;
+    this.outputs = outputs;
+    this.digitRules = digitRules;
+  }
+
+  /**
+   * 编译脱敏规则
+   *
+   * @param rules 规则
+   * @return 脱敏器
+   * @throws IllegalArgumentException 规则不合法
+   */
+  public static SecretMasker compile(List<MaskRule> rules) {
+    Builder builder = new Builder();
+    for (MaskRule rule : rules) {
+      builder.add(rule);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @param text 字段内容
+   * @return 脱敏后的内容,没有命中时为原字符串
+   */
+  public String mask(String text) {
+    if (text == null || text.isEmpty()) {
+      return text;
+    }
+    Spans spans = null;
+    int[][] next = this.next;
+    boolean automaton = next.length > 1;
+    boolean digits = digitRules != null;
+    int state = 0;
+    int digitStart = -1;
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (digits) {
+        if (c >= '0' && c <= '9') {
+          if (digitStart < 0) {
+            digitStart = i;
+          }
+        } else if (digitStart >= 0) {
+          spans = digitRun(text, digitStart, i, spans);
+          digitStart = -1;
+        }
+      }
+      if (automaton) {
+        int index = indexOf(c);
+        state = index < 0 ? 0 : next[state][index];
+        Rule[] hits = outputs[state];
+        if (hits != null) {
+          for (Rule rule : hits) {
+            spans = rule.match(text, i + 1, spans);
+          }
+        }
+      }
+    }
+    if (digitStart >= 0) {
+      spans = digitRun(text, digitStart, length, spans);
+    }
+    return spans == null ? text : spans.apply(text);
+  }
+
+  private int indexOf(char c) {
+    if (c < ASCII) {
+      return asciiIndex[c];
+    }
+    if (otherChars.length == 0) {
+      return -1;
+    }
+    int found = Arrays.binarySearch(otherChars, c);
+    return found < 0 ? -1 : otherIndexes[found];
+  }
+
+  /**
+   * 连续数字 [start, end),末位可带 X (身份证号);两侧必须不是 ASCII 字母或数字 (如 order12345678 不脱敏),
+   * 中文等其他字符视为边界
+   */
+  private Spans digitRun(String text, int start, int end, Spans spans) {
+    if (start > 0 && isAsciiAlphanumeric(text.charAt(start - 1))) {
+      return spans;
+    }
+    int length = end - start;
+    if (end < text.length() && (text.charAt(end) == 'X' || text.charAt(end) == 'x')
+        && (end + 1 == text.length() || !isAsciiAlphanumeric(text.charAt(end + 1)))) {
+      Rule rule = digitRule(text, start, length + 1);
+      if (rule != null) {
+        return Spans.add(spans, start, end + 1, rule.replacement);
+      }
+    }
+    if (end < text.length() && isAsciiAlphanumeric(text.charAt(end))) {
+      return spans;
+    }
+    Rule rule = digitRule(text, start, length);
+    return rule == null ? spans : Spans.add(spans, start, end, rule.replacement);
+  }
+
+  private static boolean isAsciiAlphanumeric(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private Rule digitRule(String text, int start, int length) {
+    if (length > MAX_DIGITS || digitRules[length] == null) {
+      return null;
+    }
+    for (Rule rule : digitRules[length]) {
+      if (rule.regex == null
+          || rule.regex.matcher(text).region(start, start + length).matches()) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isDelimiter(char c) {
+    switch (c) {
+      case ',':
+      case ';':
+      case '&':
+      case '"':
+      case '\'':
+      case '<':
+      case '>':
+      case '(':
+      case ')':
+      case '[':
+      case ']':
+      case '{':
+      case '}':
+        return true;
+      default:
+        return Character.isWhitespace(c);
+    }
+  }
+
+  private static char fold(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private enum Type {
+    LITERAL, PREFIX, DIGITS;
+
+    static Type of(String name) {
+      for (Type type : values()) {
+        if (type.name().equalsIgnoreCase(name == null ? "" : name.trim())) {
+          return type;
+        }
+      }
+      throw new IllegalArgumentException(
+          "mask type must be literal, prefix or digits : " + name);
+    }
+  }
+
+  private static final class Rule {
+
+    private final Type type;
+
+    private final int length;
+
+    private final Pattern regex;
+
+    private final String replacement;
+
+    private Rule(Type type, int length, Pattern regex, String replacement) {
+      this.type = type;
+      this.length = length;
+      this.regex = regex;
+      this.replacement = replacement;
+    }
+
+    /**
+     * pattern 在 end 处结束
+     */
+    private Spans match(String text, int end, Spans spans) {
+      int from = type == Type.LITERAL ? end - length : end;
+      int to;
+      if (regex != null) {
+        Matcher matcher = regex.matcher(text).region(from, text.length());
+        if (!matcher.lookingAt()) {
+          return spans;
+        }
+        to = matcher.end();
+      } else if (type == Type.LITERAL) {
+        to = end;
+      } else {
+        to = from;
+        while (to < text.length() && !isDelimiter(text.charAt(to))) {
+          to++;
+        }
+      }
+      return to > from ? Spans.add(spans, from, to, replacement) : spans;
+    }
+  }
+
+  /**
+   * 待替换区间,可能乱序或重叠
+   */
+  private static final class Spans {
+
+    private int[] starts = new int[4];
+
+    private int[] ends = new int[4];
+
+    private String[] replacements = new String[4];
+
+    private int size;
+
+    static Spans add(Spans spans, int start, int end, String replacement) {
+      if (spans == null) {
+        spans = new Spans();
+      }
+      if (spans.size == spans.starts.length) {
+        int capacity = spans.size * 2;
+        spans.starts = Arrays.copyOf(spans.starts, capacity);
+        spans.ends = Arrays.copyOf(spans.ends, capacity);
+        spans.replacements = Arrays.copyOf(spans.replacements, capacity);
+      }
+      spans.starts[spans.size] = start;
+      spans.ends[spans.size] = end;
+      spans.replacements[spans.size] = replacement;
+      spans.size++;
+      return spans;
+    }
+
+    String apply(String text) {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> starts[a] != starts[b] ? Integer.compare(starts[a], starts[b])
+          : Integer.compare(ends[b], ends[a]));
+      StringBuilder sb = new StringBuilder(text.length());
+      int position = 0;
+      for (Integer i : order) {
+        if (ends[i] <= position) {
+          // 已被之前的区间覆盖
+          continue;
+        }
+        int start = Math.max(starts[i], position);
+        if (start == starts[i]) {
+          sb.append(text, position, start).append(replacements[i]);
+        }
+        position = ends[i];
+      }
+      return sb.append(text, position, text.length()).toString();
+    }
+  }
+
+  private static final class Builder {
+
+    private final List<Map<Character, Integer>> children = new ArrayList<>();
+
+    private final List<List<Rule>> terminals = new ArrayList<>();
+
+    private final Set<Character> alphabet = new LinkedHashSet<>();
+
+    private final List<List<Rule>> digits = new ArrayList<>();
+
+    private Builder() {
+      newState();
+      for (int i = 0; i <= MAX_DIGITS; i++) {
+        digits.add(null);
+      }
+    }
+
+    private int newState() {
+      children.add(new HashMap<>());
+      terminals.add(new ArrayList<>());
+      return children.size() - 1;
+    }
+
+    private void add(MaskRule maskRule) {
+      Type type = Type.of(maskRule.getType());
+      String pattern = maskRule.getPattern();
+      if (pattern == null || pattern.isEmpty()) {
+        throw new IllegalArgumentException("mask pattern is empty : " + maskRule);
+      }
+      Pattern regex = maskRule.getRegex() == null || maskRule.getRegex().isEmpty() ? null
+          : Pattern.compile(maskRule.getRegex());
+      String replacement = maskRule.getReplacement() == null ? DEFAULT_REPLACEMENT
+          : maskRule.getReplacement();
+      if (type == Type.DIGITS) {
+        for (String value : pattern.split(",")) {
+          int length;
+          try {
+            length = Integer.parseInt(value.trim());
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("digits mask pattern must be lengths : " + pattern);
+          }
+          if (length < 1 || length > MAX_DIGITS) {
+            throw new IllegalArgumentException(
+                "digits mask length must be 1-" + MAX_DIGITS + " : " + pattern);
+          }
+          addDigits(length, new Rule(type, length, regex, replacement));
+        }
+        return;
+      }
+      int state = 0;
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = fold(pattern.charAt(i));
+        alphabet.add(c);
+        Integer child = children.get(state).get(c);
+        if (child == null) {
+          child = newState();
+          children.get(state).put(c, child);
+        }
+        state = child;
+      }
+      terminals.get(state).add(new Rule(type, pattern.length(), regex, replacement));
+    }
+
+    private void addDigits(int length, Rule rule) {
+      if (digits.get(length) == null) {
+        digits.set(length, new ArrayList<>());
+      }
+      digits.get(length).add(rule);
+    }
+
+    private SecretMasker build() {
+      int states = children.size();
+      Character[] chars = alphabet.toArray(new Character[0]);
+      int[][] next = new int[states][chars.length];
+      int[] fail = new int[states];
+      List<List<Rule>> outputs = new ArrayList<>(terminals);
+
+      // 按层次遍历计算 fail 指针并补全转移表
+      Queue<Integer> queue = new ArrayDeque<>();
+      for (int c = 0; c < chars.length; c++) {
+        Integer child = children.get(0).get(chars[c]);
+        if (child != null) {
+          next[0][c] = child;
+          queue.add(child);
+        }
+      }
+      while (!queue.isEmpty()) {
+        int state = queue.poll();
+        if (!outputs.get(fail[state]).isEmpty()) {
+          List<Rule> merged = new ArrayList<>(outputs.get(state));
+          merged.addAll(outputs.get(fail[state]));
+          outputs.set(state, merged);
+        }
+        for (int c = 0; c < chars.length; c++) {
+          Integer child = children.get(state).get(chars[c]);
+          if (child == null) {
+            next[state][c] = next[fail[state]][c];
+          } else {
+            next[state][c] = child;
+            fail[child] = next[fail[state]][c];
+            queue.add(child);
+          }
+        }
+      }
+
+      Rule[][] outputArray = new Rule[states][];
+      for (int state = 0; state < states; state++) {
+        List<Rule> rules = outputs.get(state);
+        outputArray[state] = rules.isEmpty() ? null : rules.toArray(new Rule[0]);
+      }
+      Rule[][] digitArray = null;
+      for (int length = 0; length <= MAX_DIGITS; length++) {
+        List<Rule> rules = digits.get(length);
+        if (rules != null) {
+          if (digitArray == null) {
+            digitArray = new Rule[MAX_DIGITS + 1][];
+          }
+          digitArray[length] = rules.toArray(new Rule[0]);
+        }
+      }
+
+      SecretMasker masker = new SecretMasker(next, outputArray, digitArray);
+      Arrays.fill(masker.asciiIndex, -1);
+      // 高 32 位为字符,低位为下标,排序后即按字符升序
+      long[] others = new long[chars.length];
+      int otherCount = 0;
+      for (int c = 0; c < chars.length; c++) {
+        char ch = chars[c];
+        if (ch < ASCII) {
+          masker.asciiIndex[ch] = c;
+          if (ch >= 'a' && ch <= 'z') {
+            masker.asciiIndex[ch - ('a' - 'A')] = c;
+          }
+        } else {
+          others[otherCount++] = ((long) ch << 32) | c;
+        }
+      }
+      Arrays.sort(others, 0, otherCount);
+      masker.otherChars = new char[otherCount];
+      masker.otherIndexes = new int[otherCount];
+      for (int i = 0; i < otherCount; i++) {
+        masker.otherChars[i] = (char) (others[i] >>> 32);
+        masker.otherIndexes[i] = (int) others[i];
+      }
+      return masker;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package com.sevlow.cls.logback;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分段日志缓存
+ * <p>
+ * 每个线程固定写入一个分段 (按线程轮流分配),分段数不少于写入线程数时每个分段只有一个写入者,
+ * 分段锁基本无竞争;发送线程按分段整批取出,保证同一线程的日志顺序
+ * <p>
+ * 写入使用 {@link #append(LogItem)},读取只允许发送线程调用 (poll 方法串行执行)
+ *
+ * @author einsitang
+ */
+public class StripedLogBuffer extends AbstractQueue<LogItem> {
+
+  // 分段初始容量
+  private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+  private final Stripe[] stripes;
+
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
+  private final ThreadLocal<Stripe> threadStripe = ThreadLocal.withInitial(this::assignStripe);
+
+  /**
+   * 发送线程取出的当前批次
+   */
+  private List<LogItem> harvested = new ArrayList<>(0);
+
+  private int harvestedIndex;
+
+  private int harvestCursor;
+
+  /**
+   * @param stripes 分段数
+   */
+  public StripedLogBuffer(int stripes) {
+    this.stripes = new Stripe[Math.max(1, stripes)];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new Stripe();
+    }
+  }
+
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  /**
+   * 写入当前线程的分段
+   *
+   * @param logItem 日志
+   * @return 写入后分段内的日志数,调用方可据此降低全局计数的读取频率
+   */
+  public int append(LogItem logItem) {
+    return threadStripe.get().add(logItem);
+  }
+
+  @Override
+  public boolean offer(LogItem logItem) {
+    append(logItem);
+    return true;
+  }
+
+  @Override
+  public synchronized LogItem poll() {
+    if (harvestedIndex >= harvested.size() && !harvest()) {
+      return null;
+    }
+    LogItem logItem = harvested.get(harvestedIndex);
+    harvested.set(harvestedIndex++, null);
+    return logItem;
+  }
+
+  @Override
+  public synchronized LogItem peek() {
+    if (harvestedIndex >= harvested.size() && !harvest()) {
+      return null;
+    }
+    return harvested.get(harvestedIndex);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    synchronized (this) {
+      if (harvestedIndex < harvested.size()) {
+        return false;
+      }
+    }
+    for (Stripe stripe : stripes) {
+      if (stripe.size > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    int size;
+    synchronized (this) {
+      size = harvested.size() - harvestedIndex;
+    }
+    for (Stripe stripe : stripes) {
+      size += stripe.size;
+    }
+    return size;
+  }
+
+  /**
+   * 返回当前内容的快照 (仅用于调试)
+   */
+  @Override
+  public Iterator<LogItem> iterator() {
+    List<LogItem> snapshot = new ArrayList<>();
+    synchronized (this) {
+      snapshot.addAll(harvested.subList(harvestedIndex, harvested.size()));
+    }
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        snapshot.addAll(stripe.items);
+      }
+    }
+    return snapshot.iterator();
+  }
+
+  /**
+   * 从下一个非空分段整批取出,轮流取分段避免某个线程的日志长期滞留
+   */
+  private boolean harvest() {
+    for (int i = 0; i < stripes.length; i++) {
+      Stripe stripe = stripes[harvestCursor];
+      harvestCursor = (harvestCursor + 1) % stripes.length;
+      if (stripe.size > 0) {
+        harvested = stripe.drain();
+        harvestedIndex = 0;
+        return !harvested.isEmpty();
+      }
+    }
+    return false;
+  }
+
+  private Stripe assignStripe() {
+    return stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)];
+  }
+
+  private static final class Stripe {
+
+    private List<LogItem> items = new ArrayList<>(INITIAL_STRIPE_CAPACITY);
+
+    private volatile int size;
+
+    synchronized int add(LogItem logItem) {
+      items.add(logItem);
+      size = items.size();
+      return size;
+    }
+
+    synchronized List<LogItem> drain() {
+      List<LogItem> drained = items;
+      items = new ArrayList<>(Math.max(INITIAL_STRIPE_CAPACITY, drained.size() / 2));
+      size = 0;
+      return drained;
+    }
+  }
+}
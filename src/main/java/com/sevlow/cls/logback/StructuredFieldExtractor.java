@@ -0,0 +1,284 @@
+package com.sevlow.cls.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.google.common.collect.ImmutableSet;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Marker;
+
+/**
+ * 结构化字段提取,不经过字符串格式化直接生成独立的 CLS 字段
+ * <p>
+ * 支持 :
+ * <p>
+ * 1. 日志参数或 Marker 中的 {@link KeyValue} / {@link KeyValueMarker}
+ * <p>
+ * 2. logstash-logback-encoder 风格的单字段参数与 Marker (getFieldName / getFieldValue)
+ * <p>
+ * 3. SLF4J 2 key-value API (运行时 logback 提供 getKeyValuePairs 时)
+ * <p>
+ * 访问方式通过 {@link ClassValue} 按类缓存,普通参数只需一次查询,不会阻止应用类加载器卸载
+ * <p>
+ * 与内置字段 (time / level / formattedMessage 等) 或 MDC 字段同名的 key 加 {@value #COLLISION_PREFIX} 前缀,
+ * 不会覆盖或重复
+ *
+ * @author einsitang
+ */
+public class StructuredFieldExtractor {
+
+  // Marker 引用最大遍历深度
+  private static final int MAX_MARKER_DEPTH = 8;
+
+  // 与内置字段或 MDC 字段同名时的前缀
+  public static final String COLLISION_PREFIX = "arg_";
+
+  private static final Set<String> RESERVED_KEYS = ImmutableSet.of(
+      LogItem.FIELD_TIME, LogItem.FIELD_DATETIME, LogItem.FIELD_LEVEL,
+      LogItem.FIELD_LOGGER_NAME, LogItem.FIELD_THREAD_NAME, LogItem.FIELD_MESSAGE,
+      LogItem.FIELD_FORMATTED_MESSAGE, LogItem.FIELD_THROWABLE, LogItem.FIELD_IP,
+      LogItem.FIELD_HOSTNAME, LogItem.FIELD_CHUNK_ID, LogItem.FIELD_CHUNK_INDEX,
+      LogItem.FIELD_CHUNK_COUNT);
+
+  private static final Method GET_KEY_VALUE_PAIRS = keyValuePairsMethod();
+
+  private static final Accessor NONE = new Accessor() {
+    @Override
+    public String key(Object object) {
+      return null;
+    }
+
+    @Override
+    public Object value(Object object) {
+      return null;
+    }
+  };
+
+  private static final Accessor KEY_VALUE = new Accessor() {
+    @Override
+    public String key(Object object) {
+      return ((KeyValue) object).getKey();
+    }
+
+    @Override
+    public Object value(Object object) {
+      return ((KeyValue) object).getValue();
+    }
+  };
+
+  private static final ClassValue<Accessor> ACCESSORS = new ClassValue<Accessor>() {
+    @Override
+    protected Accessor computeValue(Class<?> type) {
+      return accessorOf(type);
+    }
+  };
+
+  /**
+   * 提取结构化字段到 logItem
+   *
+   * @param event   日志事件
+   * @param logItem 日志
+   */
+  public void extract(ILoggingEvent event, LogItem logItem) {
+    Object[] arguments = event.getArgumentArray();
+    if (arguments != null) {
+      for (Object argument : arguments) {
+        accept(argument, logItem);
+      }
+    }
+    Marker marker = event.getMarker();
+    if (marker != null) {
+      visit(marker, logItem, 0);
+    }
+    if (GET_KEY_VALUE_PAIRS != null) {
+      extractKeyValuePairs(event, logItem);
+    }
+  }
+
+  private void visit(Marker marker, LogItem logItem, int depth) {
+    if (marker instanceof KeyValueMarker) {
+      for (KeyValue keyValue : ((KeyValueMarker) marker).getKeyValues()) {
+        put(logItem, keyValue.getKey(), keyValue.getValue());
+      }
+    } else {
+      accept(marker, logItem);
+    }
+    if (depth < MAX_MARKER_DEPTH && marker.hasReferences()) {
+      Iterator<Marker> references = marker.iterator();
+      while (references.hasNext()) {
+        visit(references.next(), logItem, depth + 1);
+      }
+    }
+  }
+
+  private void extractKeyValuePairs(ILoggingEvent event, LogItem logItem) {
+    try {
+      Object pairs = GET_KEY_VALUE_PAIRS.invoke(event);
+      if (pairs instanceof List) {
+        for (Object pair : (List<?>) pairs) {
+          accept(pair, logItem);
+        }
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // ignore
+    }
+  }
+
+  private void accept(Object object, LogItem logItem) {
+    if (object == null) {
+      return;
+    }
+    Accessor accessor = ACCESSORS.get(object.getClass());
+    if (accessor == NONE) {
+      return;
+    }
+    try {
+      put(logItem, accessor.key(object), accessor.value(object));
+    } catch (RuntimeException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * 值在采集时转换为字符串,避免参数对象后续被修改
+   * <p>
+   * 需在 MDC 字段写入 logItem 之后调用
+   */
+  private static void put(LogItem logItem, String key, Object value) {
+    if (key == null || value == null) {
+      return;
+    }
+    Map<String, String> fields = logItem.getStructuredFields();
+    if (fields == null) {
+      fields = new LinkedHashMap<>();
+      logItem.setStructuredFields(fields);
+    }
+    if (RESERVED_KEYS.contains(key) || logItem.getMdcFields().containsKey(key)) {
+      key = COLLISION_PREFIX.concat(key);
+    }
+    fields.put(key, String.valueOf(value));
+  }
+
+  private static Accessor accessorOf(Class<?> type) {
+    if (type == KeyValue.class) {
+      return KEY_VALUE;
+    }
+    if (type == String.class || Number.class.isAssignableFrom(type)
+        || type == Boolean.class || type.isArray() || type.isEnum()) {
+      return NONE;
+    }
+    // logstash-logback-encoder : SingleFieldAppendingMarker
+    Method fieldName = findMethod(type, "getFieldName");
+    Method fieldValue = findMethod(type, "getFieldValue");
+    if (fieldName != null && fieldValue != null && fieldName.getReturnType() == String.class) {
+      return new MethodAccessor(fieldName, fieldValue);
+    }
+    // SLF4J 2 : org.slf4j.event.KeyValuePair
+    if ("org.slf4j.event.KeyValuePair".equals(type.getName())) {
+      try {
+        return new FieldAccessor(type.getField("key"), type.getField("value"));
+      } catch (NoSuchFieldException e) {
+        return NONE;
+      }
+    }
+    return NONE;
+  }
+
+  private static Method findMethod(Class<?> type, String name) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      try {
+        Method method = c.getDeclaredMethod(name);
+        if (Modifier.isStatic(method.getModifiers())) {
+          return null;
+        }
+        method.setAccessible(true);
+        return method;
+      } catch (NoSuchMethodException e) {
+        // super class
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private static Method keyValuePairsMethod() {
+    try {
+      return ILoggingEvent.class.getMethod("getKeyValuePairs");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private interface Accessor {
+
+    String key(Object object);
+
+    Object value(Object object);
+  }
+
+  private static final class MethodAccessor implements Accessor {
+
+    private final Method key;
+
+    private final Method value;
+
+    private MethodAccessor(Method key, Method value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public String key(Object object) {
+      try {
+        return (String) key.invoke(object);
+      } catch (ReflectiveOperationException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public Object value(Object object) {
+      try {
+        return value.invoke(object);
+      } catch (ReflectiveOperationException e) {
+        return null;
+      }
+    }
+  }
+
+  private static final class FieldAccessor implements Accessor {
+
+    private final Field key;
+
+    private final Field value;
+
+    private FieldAccessor(Field key, Field value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public String key(Object object) {
+      try {
+        return String.valueOf(key.get(object));
+      } catch (IllegalAccessException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public Object value(Object object) {
+      try {
+        return value.get(object);
+      } catch (IllegalAccessException e) {
+        return null;
+      }
+    }
+  }
+}
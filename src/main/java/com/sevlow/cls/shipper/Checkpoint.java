@@ -0,0 +1,131 @@
+package com.sevlow.cls.shipper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件断点 : 每个文件已确认上传的字节偏移
+ * <p>
+ * 数据包乱序完成,只有从断点开始连续完成的部分才推进断点,保证续传时不丢失日志 (可能重复少量日志)
+ *
+ * @author einsitang
+ */
+public class Checkpoint {
+
+  private final Path path;
+
+  private final Map<String, Progress> files = new ConcurrentHashMap<>();
+
+  private final Properties saved = new Properties();
+
+  private Checkpoint(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * 读取断点文件,不存在则为空
+   *
+   * @param path 断点文件
+   * @return 断点
+   * @throws IOException 读取失败
+   */
+  public static Checkpoint load(Path path) throws IOException {
+    Checkpoint checkpoint = new Checkpoint(path);
+    if (Files.exists(path)) {
+      try (InputStream is = Files.newInputStream(path)) {
+        checkpoint.saved.load(is);
+      }
+    }
+    return checkpoint;
+  }
+
+  /**
+   * @param file 日志文件
+   * @return 已确认的偏移,没有记录为 0
+   */
+  public long offset(Path file) {
+    Progress progress = files.get(key(file));
+    if (progress != null) {
+      return progress.committed();
+    }
+    String offset = saved.getProperty(key(file));
+    return offset == null ? 0 : Long.parseLong(offset);
+  }
+
+  /**
+   * 开始跟踪文件
+   *
+   * @param file   日志文件
+   * @param offset 起始偏移
+   * @return 进度
+   */
+  public Progress track(Path file, long offset) {
+    Progress progress = new Progress(offset);
+    files.put(key(file), progress);
+    return progress;
+  }
+
+  /**
+   * 原子写入断点文件
+   *
+   * @throws IOException 写入失败
+   */
+  public synchronized void save() throws IOException {
+    Properties properties = new Properties();
+    properties.putAll(saved);
+    for (Map.Entry<String, Progress> entry : files.entrySet()) {
+      properties.setProperty(entry.getKey(), String.valueOf(entry.getValue().committed()));
+    }
+    Path parent = path.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try (OutputStream os = Files.newOutputStream(temp)) {
+      properties.store(os, "cls shipper checkpoint");
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String key(Path file) {
+    return file.toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * 单个文件的进度
+   */
+  public static final class Progress {
+
+    private long committed;
+
+    /**
+     * 已完成但尚未连续的区间 : start -> end
+     */
+    private final TreeMap<Long, Long> completed = new TreeMap<>();
+
+    private Progress(long committed) {
+      this.committed = committed;
+    }
+
+    /**
+     * 区间 [start, end) 已上传
+     */
+    public synchronized void complete(long start, long end) {
+      completed.put(start, end);
+      Long next;
+      while ((next = completed.remove(committed)) != null) {
+        committed = next;
+      }
+    }
+
+    public synchronized long committed() {
+      return committed;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.sevlow.cls.shipper;
+
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sevlow.cls.logback.ContentKeys;
+import com.sevlow.cls.logback.LogItem;
+import java.util.Map;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * 将日志文件的一行解析为 CLS 日志
+ * <p>
+ * json : 顶层字段各自成为一个字段,嵌套对象与数组保留为 json 字符串;时间取 time / timestamp / @timestamp
+ * <p>
+ * plain : 整行作为 message 字段
+ *
+ * @author einsitang
+ */
+public class LineParser {
+
+  private static final String[] TIME_FIELDS = {LogItem.FIELD_TIME, "timestamp", "@timestamp"};
+
+  // 小于该值的数值时间视为秒
+  private static final long MAX_EPOCH_SECONDS = 100_000_000_000L;
+
+  private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser()
+      .withOffsetParsed();
+
+  private final Format format;
+
+  public LineParser(String format) {
+    this.format = Format.of(format);
+  }
+
+  /**
+   * @param line        行内容 (不含换行符)
+   * @param defaultTime 无法从内容中取得时间时使用的时间 (毫秒)
+   * @return 日志
+   */
+  public Log parse(String line, long defaultTime) {
+    if (format != Format.PLAIN && (format == Format.JSON || line.startsWith("{"))) {
+      Log log = parseJson(line, defaultTime);
+      if (log != null) {
+        return log;
+      }
+    }
+    return Log.newBuilder()
+        .setTime(defaultTime)
+        .addContents(content(LogItem.FIELD_MESSAGE, line))
+        .build();
+  }
+
+  private Log parseJson(String line, long defaultTime) {
+    JsonObject object;
+    try {
+      JsonElement element = new JsonParser().parse(line);
+      if (!element.isJsonObject()) {
+        return null;
+      }
+      object = element.getAsJsonObject();
+    } catch (RuntimeException e) {
+      return null;
+    }
+    Log.Builder builder = Log.newBuilder().setTime(timeOf(object, defaultTime));
+    for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+      JsonElement value = entry.getValue();
+      if (value.isJsonNull()) {
+        continue;
+      }
+      builder.addContents(content(entry.getKey(),
+          value.isJsonPrimitive() ? value.getAsString() : value.toString()));
+    }
+    return builder.build();
+  }
+
+  private static long timeOf(JsonObject object, long defaultTime) {
+    for (String field : TIME_FIELDS) {
+      JsonElement value = object.get(field);
+      if (value == null || !value.isJsonPrimitive()) {
+        continue;
+      }
+      JsonPrimitive primitive = value.getAsJsonPrimitive();
+      try {
+        if (primitive.isNumber() || primitive.getAsString().matches("\\d+")) {
+          long time = primitive.getAsLong();
+          return time < MAX_EPOCH_SECONDS ? time * 1000 : time;
+        }
+        return ISO_PARSER.parseMillis(primitive.getAsString());
+      } catch (RuntimeException e) {
+        // 下一个字段
+      }
+    }
+    return defaultTime;
+  }
+
+  private static Content content(String key, String value) {
+    return Content.newBuilder()
+        .setKeyBytes(ContentKeys.of(key))
+        .setValue(value)
+        .build();
+  }
+
+  private enum Format {
+    AUTO, JSON, PLAIN;
+
+    static Format of(String name) {
+      if (name != null) {
+        for (Format format : values()) {
+          if (format.name().equalsIgnoreCase(name.trim())) {
+            return format;
+          }
+        }
+      }
+      return AUTO;
+    }
+  }
+}
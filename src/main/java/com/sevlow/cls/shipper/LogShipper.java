@@ -0,0 +1,412 @@
+package com.sevlow.cls.shipper;
+
+import cls.Cls.Log;
+import cls.Cls.LogGroup;
+import cls.Cls.LogGroupList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sevlow.cls.ConsoleLog;
+import com.sevlow.cls.config.ClsConfig;
+import com.sevlow.cls.logback.CircuitBreaker;
+import com.sevlow.cls.logback.CompressBuffers;
+import com.sevlow.cls.logback.Producer;
+import com.squareup.okhttp.OkHttpClient;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 日志文件补传工具
+ * <p>
+ * 读取线程按内存映射窗口扫描换行符切分数据包,解码、编码与压缩在 fork-join 线程池中并行执行,
+ * 通过 {@link Producer} 上传并限制同时上传的数据包数;数据包完成后推进文件断点,中断后可续传
+ * <p>
+ * 运行 : java -cp tencent-cls-logback-appender.jar com.sevlow.cls.shipper.LogShipper
+ * region=ap-guangzhou secretId=... secretKey=... topicId=... /var/log/app
+ *
+ * @author einsitang
+ */
+public class LogShipper {
+
+  private static final String CLASS_NAME = LogShipper.class.getName();
+
+  // 内存映射窗口 64MB
+  private static final int WINDOW_BYTES = 64 * 1024 * 1024;
+
+  // 熔断或限流时的等待间隔
+  private static final long PAUSE_MILLIS = 100;
+
+  private static final long CHECKPOINT_INTERVAL_SECONDS = 1;
+
+  private final ShipperOptions options;
+
+  private final ConsoleLog consoleLog;
+
+  private final LineParser lineParser;
+
+  private final LongAdder lines = new LongAdder();
+
+  private final LongAdder bytes = new LongAdder();
+
+  private final LongAdder batches = new LongAdder();
+
+  private final LongAdder delivered = new LongAdder();
+
+  private final LongAdder rejected = new LongAdder();
+
+  private final LongAdder failedBatches = new LongAdder();
+
+  private Producer producer;
+
+  private ForkJoinPool encoders;
+
+  private Semaphore inFlight;
+
+  private Checkpoint checkpoint;
+
+  public LogShipper(ShipperOptions options) {
+    this.options = options;
+    this.consoleLog = new ConsoleLog(CLASS_NAME, options.isDebug());
+    this.lineParser = new LineParser(options.getFormat());
+  }
+
+  public static void main(String[] args) throws Exception {
+    ShipperOptions options = ShipperOptions.parse(args);
+    try {
+      options.validate();
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println("usage : LogShipper region=<region> secretId=<id> secretKey=<key>"
+          + " topicId=<topic> [endpoint=<url>] [format=auto|json|plain] [parallelism=<n>]"
+          + " [concurrency=<n>] [checkpoint=<file>] <file or directory>...");
+      System.exit(2);
+    }
+    Result result = new LogShipper(options).run();
+    System.out.println(result);
+    System.exit(result.getExitCode());
+  }
+
+  /**
+   * 上传全部文件,返回前等待所有数据包完成并保存断点
+   *
+   * @return 结果
+   * @throws IOException 读取文件或断点失败
+   */
+  public Result run() throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    checkpoint = Checkpoint.load(Paths.get(options.getCheckpoint()));
+    encoders = new ForkJoinPool(options.getParallelism());
+    inFlight = new Semaphore(options.getConcurrency());
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cls-shipper-%d").build());
+    OkHttpClient httpClient = new OkHttpClient();
+    httpClient.getDispatcher().setMaxRequests(options.getConcurrency());
+    httpClient.getDispatcher().setMaxRequestsPerHost(options.getConcurrency());
+    producer = new Producer(createClsConfig(), httpClient, new CompressBuffers(), scheduler);
+    scheduler.scheduleWithFixedDelay(this::saveCheckpoint, CHECKPOINT_INTERVAL_SECONDS,
+        CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    try {
+      for (Path file : listFiles()) {
+        if (producer.getFatalError() != null) {
+          break;
+        }
+        ship(file);
+      }
+      // 等待在途数据包
+      inFlight.acquire(options.getConcurrency());
+      inFlight.release(options.getConcurrency());
+    } finally {
+      encoders.shutdown();
+      scheduler.shutdown();
+      httpClient.getDispatcher().getExecutorService().shutdown();
+      checkpoint.save();
+    }
+
+    Result result = new Result();
+    result.lines = lines.sum();
+    result.bytes = bytes.sum();
+    result.batches = batches.sum();
+    result.delivered = delivered.sum();
+    result.rejected = rejected.sum();
+    result.failedBatches = failedBatches.sum();
+    result.fatalError = producer.getFatalError() == null ? null
+        : producer.getFatalError().toString();
+    result.seconds = (System.nanoTime() - start) / 1e9;
+    return result;
+  }
+
+  private ClsConfig createClsConfig() {
+    ClsConfig config = new ClsConfig();
+    config.setRegion(options.getRegion());
+    config.setSecretId(options.getSecretId());
+    config.setSecretKey(options.getSecretKey());
+    config.setInternal(options.isInternal());
+    config.setEndpoint(options.getEndpoint());
+    config.setDebug(options.isDebug());
+    return config;
+  }
+
+  private List<Path> listFiles() throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (String name : options.getFiles()) {
+      Path path = Paths.get(name);
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> stream = Files.walk(path)) {
+          files.addAll(stream.filter(Files::isRegularFile).filter(this::isShippable).sorted()
+              .collect(Collectors.toList()));
+        }
+      } else {
+        files.add(path);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * 排除补传工具自己的断点文件及保存断点时的临时文件
+   */
+  private boolean isShippable(Path file) {
+    Path checkpointFile = Paths.get(options.getCheckpoint()).toAbsolutePath().normalize();
+    Path absolute = file.toAbsolutePath().normalize();
+    if (absolute.equals(checkpointFile)) {
+      return false;
+    }
+    String name = file.getFileName().toString();
+    return !(Objects.equals(absolute.getParent(), checkpointFile.getParent())
+        && name.startsWith(checkpointFile.getFileName().toString()) && name.endsWith(".tmp"));
+  }
+
+  private void ship(Path file) throws IOException, InterruptedException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = checkpoint.offset(file);
+      if (position > size) {
+        consoleLog.log(file + " 小于断点位置,可能已轮转,从头开始");
+        position = 0;
+      }
+      Checkpoint.Progress progress = checkpoint.track(file, position);
+      String source = options.getSource() == null ? file.getFileName().toString()
+          : options.getSource();
+      long defaultTime = Files.getLastModifiedTime(file).toMillis();
+      while (position < size && producer.getFatalError() == null) {
+        int window = (int) Math.min(WINDOW_BYTES, size - position);
+        MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, window);
+        boolean last = position + window == size;
+        int consumed = split(buffer, window, last, position, file, source, defaultTime,
+            progress);
+        if (consumed == 0) {
+          // 单行超过窗口大小,整个窗口作为一个数据包
+          submit(slice(buffer, 0, window), position, position + window, file, source,
+              defaultTime, progress);
+          consumed = window;
+        }
+        position += consumed;
+      }
+    }
+  }
+
+  /**
+   * 按换行符切分窗口
+   *
+   * @return 已切分的字节数 (不完整的最后一行留给下一个窗口)
+   */
+  private int split(ByteBuffer buffer, int window, boolean last, long base, Path file,
+      String source, long defaultTime, Checkpoint.Progress progress)
+      throws InterruptedException {
+    int batchStart = 0;
+    int lineEnd = 0;
+    int count = 0;
+    for (int i = 0; i < window; i++) {
+      if (buffer.get(i) != '\n') {
+        continue;
+      }
+      lineEnd = i + 1;
+      count++;
+      if (count >= options.getBatchLogs() || lineEnd - batchStart >= options.getBatchBytes()) {
+        submit(slice(buffer, batchStart, lineEnd), base + batchStart, base + lineEnd, file,
+            source, defaultTime, progress);
+        batchStart = lineEnd;
+        count = 0;
+      }
+    }
+    if (last) {
+      lineEnd = window;
+    }
+    if (lineEnd > batchStart) {
+      submit(slice(buffer, batchStart, lineEnd), base + batchStart, base + lineEnd, file,
+          source, defaultTime, progress);
+    }
+    return lineEnd;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(from);
+    slice.limit(to);
+    return slice.slice();
+  }
+
+  private void submit(ByteBuffer data, long start, long end, Path file, String source,
+      long defaultTime, Checkpoint.Progress progress) throws InterruptedException {
+    CircuitBreaker.Permit permit = awaitPermit();
+    inFlight.acquire();
+    batches.increment();
+    bytes.add(end - start);
+    encoders.execute(() -> encodeAndUpload(data, start, end, file, source, defaultTime,
+        progress, permit));
+  }
+
+  /**
+   * 熔断或限流期间暂停读取
+   *
+   * @return 上报许可 (停止上报时为 NONE),未调用上传时必须归还
+   */
+  private CircuitBreaker.Permit awaitPermit() throws InterruptedException {
+    while (producer.getFatalError() == null) {
+      if (!producer.isThrottled(options.getTopicId())) {
+        CircuitBreaker.Permit permit = producer.acquire();
+        if (permit != CircuitBreaker.Permit.NONE) {
+          return permit;
+        }
+      }
+      Thread.sleep(PAUSE_MILLIS);
+    }
+    return CircuitBreaker.Permit.NONE;
+  }
+
+  private void encodeAndUpload(ByteBuffer data, long start, long end, Path file, String source,
+      long defaultTime, Checkpoint.Progress progress, CircuitBreaker.Permit permit) {
+    boolean uploaded = false;
+    try {
+      byte[] raw = new byte[data.remaining()];
+      data.get(raw);
+      String text = new String(raw, StandardCharsets.UTF_8);
+      LogGroup.Builder group = LogGroup.newBuilder()
+          .setSource(source)
+          .setFilename(file.toString())
+          .setContextFlow(Long.toHexString(start));
+      int from = 0;
+      int length = text.length();
+      while (from < length) {
+        int to = text.indexOf('\n', from);
+        if (to < 0) {
+          to = length;
+        }
+        int lineEnd = to > from && text.charAt(to - 1) == '\r' ? to - 1 : to;
+        if (lineEnd > from) {
+          Log log = lineParser.parse(text.substring(from, lineEnd), defaultTime);
+          group.addLogs(log);
+        }
+        from = to + 1;
+      }
+      int count = group.getLogsCount();
+      lines.add(count);
+      if (count == 0) {
+        progress.complete(start, end);
+        inFlight.release();
+        return;
+      }
+      LogGroupList lgl = LogGroupList.newBuilder().addLogGroupList(group).build();
+      // 构建请求失败时由 Producer 计入熔断
+      uploaded = true;
+      producer.lz4Upload(options.getTopicId(), lgl, (deliveredLogs, rejectedLogs) -> {
+        delivered.add(deliveredLogs);
+        rejected.add(rejectedLogs);
+        if (rejectedLogs > 0) {
+          // 重试耗尽、被拒绝或停止上报,不推进断点,续传时重新上传
+          consoleLog.log(file + " [" + start + "," + end + ") 放弃 " + rejectedLogs + " 条日志");
+          failedBatches.increment();
+        } else {
+          progress.complete(start, end);
+        }
+        inFlight.release();
+      });
+    } catch (IOException | RuntimeException e) {
+      consoleLog.log(file + " [" + start + "," + end + ") 上传失败 : " + e.getMessage());
+      failedBatches.increment();
+      inFlight.release();
+    } finally {
+      if (!uploaded) {
+        // 空数据包或解析失败,归还许可
+        producer.release(permit);
+      }
+    }
+  }
+
+  private void saveCheckpoint() {
+    try {
+      checkpoint.save();
+    } catch (IOException e) {
+      consoleLog.log("保存断点失败 : ".concat(String.valueOf(e.getMessage())));
+    }
+  }
+
+  /**
+   * 补传结果
+   */
+  public static class Result {
+
+    long lines;
+    long bytes;
+    long batches;
+    long delivered;
+    long rejected;
+    long failedBatches;
+    String fatalError;
+    double seconds;
+
+    public long getLines() {
+      return lines;
+    }
+
+    public long getDelivered() {
+      return delivered;
+    }
+
+    public long getRejected() {
+      return rejected;
+    }
+
+    public long getFailedBatches() {
+      return failedBatches;
+    }
+
+    public String getFatalError() {
+      return fatalError;
+    }
+
+    /**
+     * @return 进程退出码 : 全部送达为 0,有放弃的日志、失败的数据包或停止上报时为 1
+     */
+    public int getExitCode() {
+      return fatalError == null && failedBatches == 0 && rejected == 0 ? 0 : 1;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "lines=%d batches=%d delivered=%d rejected=%d failedBatches=%d in %.1fs"
+              + " -> %.0f lines/s %.1f MB/s%s",
+          lines, batches, delivered, rejected, failedBatches, seconds, lines / seconds,
+          bytes / 1048576.0 / seconds, fatalError == null ? "" : " fatal : " + fatalError);
+    }
+  }
+}
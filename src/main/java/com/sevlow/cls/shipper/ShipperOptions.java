@@ -0,0 +1,148 @@
+package com.sevlow.cls.shipper;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * 日志文件补传参数,命令行格式 key=value,未识别的参数视为文件或目录
+ *
+ * @author einsitang
+ */
+@Data
+public class ShipperOptions {
+
+  private String region;
+
+  private String secretId;
+
+  private String secretKey;
+
+  private String topicId;
+
+  /**
+   * 是否腾讯云内网上报
+   */
+  private boolean internal;
+
+  /**
+   * 自定义上报地址,为空则根据 region 与 internal 生成
+   */
+  private String endpoint;
+
+  /**
+   * 日志来源,默认为文件名
+   */
+  private String source;
+
+  /**
+   * 行格式 : auto (默认,以 { 开头按 json 解析) / json / plain
+   */
+  private String format = "auto";
+
+  /**
+   * 每个数据包最多日志数
+   */
+  private int batchLogs = 4096;
+
+  /**
+   * 每个数据包最多字节数 (原始文件字节)
+   */
+  private int batchBytes = 2 * 1024 * 1024;
+
+  /**
+   * 编码压缩线程数
+   */
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * 同时上传的数据包数
+   */
+  private int concurrency = 32;
+
+  /**
+   * 断点文件
+   */
+  private String checkpoint = ".cls-shipper.checkpoint";
+
+  private boolean debug;
+
+  private List<String> files = new ArrayList<>();
+
+  public static ShipperOptions parse(String... args) {
+    ShipperOptions options = new ShipperOptions();
+    for (String arg : args) {
+      String[] kv = arg.split("=", 2);
+      if (kv.length != 2) {
+        options.files.add(arg);
+        continue;
+      }
+      String value = kv[1];
+      switch (kv[0]) {
+        case "region":
+          options.region = value;
+          break;
+        case "secretId":
+          options.secretId = value;
+          break;
+        case "secretKey":
+          options.secretKey = value;
+          break;
+        case "topicId":
+          options.topicId = value;
+          break;
+        case "internal":
+          options.internal = Boolean.parseBoolean(value);
+          break;
+        case "endpoint":
+          options.endpoint = value;
+          break;
+        case "source":
+          options.source = value;
+          break;
+        case "format":
+          options.format = value;
+          break;
+        case "batchLogs":
+          options.batchLogs = Math.max(1, Integer.parseInt(value));
+          break;
+        case "batchBytes":
+          options.batchBytes = Math.max(1024, Integer.parseInt(value));
+          break;
+        case "parallelism":
+          options.parallelism = Math.max(1, Integer.parseInt(value));
+          break;
+        case "concurrency":
+          options.concurrency = Math.max(1, Integer.parseInt(value));
+          break;
+        case "checkpoint":
+          options.checkpoint = value;
+          break;
+        case "debug":
+          options.debug = Boolean.parseBoolean(value);
+          break;
+        default:
+          options.files.add(arg);
+          break;
+      }
+    }
+    return options;
+  }
+
+  /**
+   * 校验必填参数
+   *
+   * @throws IllegalArgumentException 缺少参数
+   */
+  public void validate() {
+    if (topicId == null || secretId == null || secretKey == null) {
+      throw new IllegalArgumentException("topicId, secretId and secretKey are required");
+    }
+    if (region == null && endpoint == null) {
+      throw new IllegalArgumentException("region or endpoint is required");
+    }
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("no file or directory given");
+    }
+  }
+}
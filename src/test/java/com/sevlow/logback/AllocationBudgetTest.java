@@ -0,0 +1,147 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.sevlow.cls.logback.LoghubAppender;
+import java.lang.management.ManagementFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+/**
+ * 单条日志分配量预算 (上报到本地 CLS 替身服务)
+ * <p>
+ * append : 调用线程上 LoghubAppender.doAppend 的分配量,包含 logback 延迟计算的 callerData 等
+ * <p>
+ * encode : sendOnce 中每条日志编码、序列化、压缩与签名的分配量 (http 请求在 OkHttp 线程中发送,不计入)
+ * <p>
+ * appender 启动后从 hub 注销,hub 的周期任务不会在写入与发送之间取走日志,每轮写入后由测试线程发送
+ */
+public class AllocationBudgetTest {
+
+  private static final int EVENTS = 2_000;
+
+  private static final int WARMUP_ROUNDS = 20;
+
+  private static final int ROUNDS = 5;
+
+  // 预算 (字节/条),约为当前实测值的 1.5 倍
+  private static final long PLAIN_APPEND_BUDGET = 6_000;
+  private static final long PLAIN_ENCODE_BUDGET = 1_200;
+  private static final long MDC_APPEND_BUDGET = 8_000;
+  private static final long MDC_ENCODE_BUDGET = 2_000;
+  // 异常栈格式化的分配量与调用栈深度相关,序列化与压缩的分配量与异常栈长度相关;
+  // 实测约 64KB / 6.4KB (surefire 调用栈),预算只留约 15% 余量
+  private static final long THROWABLE_APPEND_BUDGET = 74_000;
+  private static final long THROWABLE_ENCODE_BUDGET = 7_400;
+
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private Logger logger;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  @Before
+  public void before() throws Exception {
+    Assume.assumeTrue(THREAD_MX_BEAN.isThreadAllocatedMemorySupported());
+    THREAD_MX_BEAN.setThreadAllocatedMemoryEnabled(true);
+
+    server = new ClsStandInServer();
+    loggerContext = new LoggerContext();
+    logger = loggerContext.getLogger(AllocationBudgetTest.class);
+    appender = StandInFixtures.appender(loggerContext, server, "budget");
+    appender.setMdcFields("traceId,userId");
+    appender.setSendPackLogs(8_000);
+    appender.start();
+    // 只由测试线程发送
+    appender.getClsHub().unregister(appender.getRegistration());
+  }
+
+  @After
+  public void after() {
+    MDC.clear();
+    if (appender != null) {
+      appender.stop();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testPlainMessage() {
+    measure("plain", null, PLAIN_APPEND_BUDGET, PLAIN_ENCODE_BUDGET);
+  }
+
+  @Test
+  public void testMdcFields() {
+    MDC.put("traceId", "5f1c2a7e9b3d4c10");
+    MDC.put("userId", "10086");
+    MDC.put("ignored", "not whitelisted");
+    measure("mdc", null, MDC_APPEND_BUDGET, MDC_ENCODE_BUDGET);
+  }
+
+  @Test
+  public void testThrowable() {
+    measure("throwable", new IllegalStateException("budget exception"),
+        THROWABLE_APPEND_BUDGET, THROWABLE_ENCODE_BUDGET);
+  }
+
+  private void measure(String scenario, Throwable throwable, long appendBudget,
+      long encodeBudget) {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      round(throwable);
+    }
+    long appendBytes = 0;
+    long encodeBytes = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      long[] bytes = round(throwable);
+      appendBytes += bytes[0];
+      encodeBytes += bytes[1];
+    }
+    long appendPerEvent = appendBytes / ROUNDS / EVENTS;
+    long encodePerEvent = encodeBytes / ROUNDS / EVENTS;
+    assertEquals(0, loggerContext.getStatusManager().getCount());
+    assertTrue(scenario + " append " + appendPerEvent + " > " + appendBudget,
+        appendPerEvent <= appendBudget);
+    assertTrue(scenario + " encode " + encodePerEvent + " > " + encodeBudget,
+        encodePerEvent <= encodeBudget);
+  }
+
+  private long[] round(Throwable throwable) {
+    LoggingEvent[] events = new LoggingEvent[EVENTS];
+    for (int i = 0; i < EVENTS; i++) {
+      events[i] = new LoggingEvent(AllocationBudgetTest.class.getName(), logger, Level.INFO,
+          "budget event {} of {}", throwable, new Object[]{i, "allocation budget"});
+    }
+
+    long start = allocatedBytes();
+    for (LoggingEvent event : events) {
+      appender.doAppend(event);
+    }
+    long appended = allocatedBytes();
+    while (appender.sendOnce()) {
+      // drain
+    }
+    long encoded = allocatedBytes();
+    return new long[]{appended - start, encoded - appended};
+  }
+
+  private static long allocatedBytes() {
+    return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+
+import com.sevlow.cls.logback.CircuitBreaker;
+import com.sevlow.cls.logback.CircuitBreaker.Permit;
+import com.sevlow.cls.logback.CircuitBreaker.State;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void testConsecutiveFailures() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker(3, 100, 20, 50);
+    breaker.onFailure();
+    breaker.onFailure();
+    assertEquals(Permit.NORMAL, breaker.acquire());
+    breaker.onFailure();
+    assertEquals(State.OPEN, breaker.getState());
+    assertEquals(Permit.NONE, breaker.acquire());
+
+    Thread.sleep(80);
+    assertEquals(Permit.PROBE, breaker.acquire());
+    // 探测请求返回前不放行其他请求
+    assertEquals(Permit.NONE, breaker.acquire());
+    breaker.onFailure();
+    assertEquals(State.OPEN, breaker.getState());
+
+    Thread.sleep(80);
+    assertEquals(Permit.PROBE, breaker.acquire());
+    breaker.onSuccess();
+    assertEquals(State.CLOSED, breaker.getState());
+    assertEquals(Permit.NORMAL, breaker.acquire());
+  }
+
+  @Test
+  public void testReleaseUnusedProbe() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker(1, 100, 20, 50);
+    breaker.onFailure();
+    Thread.sleep(80);
+    // 探测许可申请后缓存已空,没有上传
+    assertEquals(Permit.PROBE, breaker.acquire());
+    breaker.release(Permit.PROBE);
+    assertEquals(State.OPEN, breaker.getState());
+    assertEquals(Permit.PROBE, breaker.acquire());
+    breaker.onSuccess();
+    assertEquals(State.CLOSED, breaker.getState());
+    // 正常许可无需归还
+    breaker.release(Permit.NORMAL);
+    assertEquals(Permit.NORMAL, breaker.acquire());
+  }
+
+  @Test
+  public void testProbeTimeout() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker(1, 100, 20, 50, 100);
+    breaker.onFailure();
+    Thread.sleep(80);
+    assertEquals(Permit.PROBE, breaker.acquire());
+    assertEquals(Permit.NONE, breaker.acquire());
+    // 探测请求丢失,超时后重新放行
+    Thread.sleep(150);
+    assertEquals(Permit.PROBE, breaker.acquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+  }
+
+  @Test
+  public void testFailureRate() {
+    CircuitBreaker breaker = new CircuitBreaker(100, 50, 10, 1000);
+    for (int i = 0; i < 5; i++) {
+      breaker.onSuccess();
+      breaker.onFailure();
+      assertEquals(i < 4 ? State.CLOSED : State.OPEN, breaker.getState());
+    }
+  }
+
+}
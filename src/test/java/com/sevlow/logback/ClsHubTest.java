@@ -0,0 +1,304 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.logback.ClsHub;
+import com.sevlow.cls.logback.ClsHub.Registration;
+import com.sevlow.cls.logback.ClsHub.Sender;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.MaskRule;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 共享 hub 的调度与独立 hub 的生命周期
+ */
+public class ClsHubTest {
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private ClsHub hub;
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    loggerContext = new LoggerContext();
+  }
+
+  @After
+  public void after() {
+    if (hub != null) {
+      hub.stop();
+    }
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testSharedHub() throws Exception {
+    hub = hub("shared", 2);
+    int privateThreads = hubThreads("private");
+    Map<String, LongAdder> topics = new ConcurrentHashMap<>();
+    server.onAccepted(log -> topics.computeIfAbsent(message(log).split(" ")[0],
+        k -> new LongAdder()).increment());
+
+    LoghubAppender<ILoggingEvent> first = appender("first");
+    LoghubAppender<ILoggingEvent> second = appender("second");
+    assertEquals(privateThreads, hubThreads("private"));
+    Logger firstLogger = StandInFixtures.logger(loggerContext, first, "first");
+    Logger secondLogger = StandInFixtures.logger(loggerContext, second, "second");
+    for (int i = 0; i < 1_000; i++) {
+      firstLogger.info("first {}", i);
+      secondLogger.info("second {}", i);
+    }
+    assertTrue("accepted " + server.getAcceptedEvents(),
+        StandInFixtures.waitFor(() -> server.getAcceptedEvents() == 2_000, 10_000));
+    assertEquals(1_000, topics.get("first").sum());
+    assertEquals(1_000, topics.get("second").sum());
+
+    // 停止 appender 不影响共享 hub
+    first.stop();
+    assertTrue(hub.isStarted());
+    second.stop();
+    assertTrue(hub.isStarted());
+  }
+
+  @Test
+  public void testRequeueBetweenSenders() throws Exception {
+    hub = hub("fair", 1);
+    List<String> sent = new CopyOnWriteArrayList<>();
+    AtomicInteger busy = new AtomicInteger(50);
+    Registration busyRegistration = hub.register(sender(() -> {
+      sent.add("busy");
+      return busy.decrementAndGet() > 0;
+    }));
+    Registration idleRegistration = hub.register(sender(() -> {
+      sent.add("idle");
+      return false;
+    }));
+
+    // 占住唯一的发送线程,让两个发送方同时排队
+    CountDownLatch gate = new CountDownLatch(1);
+    hub.register(sender(() -> {
+      awaitQuietly(gate);
+      return false;
+    })).trigger();
+    busyRegistration.trigger();
+    idleRegistration.trigger();
+    gate.countDown();
+    assertTrue(StandInFixtures.waitFor(() -> sent.size() == 51, 5_000));
+    // 每发送一个数据包后重新排队,另一个发送方不必等待积压发完
+    assertEquals(sent.toString(), 1, sent.indexOf("idle"));
+  }
+
+  @Test
+  public void testOneTaskPerSender() throws Exception {
+    hub = hub("single", 4);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    AtomicInteger rounds = new AtomicInteger(200);
+    Registration registration = hub.register(sender(() -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      Thread.yield();
+      running.decrementAndGet();
+      return rounds.decrementAndGet() > 0;
+    }));
+    for (int i = 0; i < 1_000; i++) {
+      registration.trigger();
+    }
+    assertTrue(StandInFixtures.waitFor(() -> rounds.get() <= 0, 5_000));
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testTriggerWhileRunning() throws Exception {
+    hub = hub("rerun", 2);
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    Registration registration = hub.register(sender(() -> {
+      if (calls.incrementAndGet() == 1) {
+        sending.countDown();
+        awaitQuietly(release);
+      }
+      // 没有更多数据
+      return false;
+    }));
+    registration.trigger();
+    sending.await();
+    // 发送任务执行期间的请求 (如 flush 写入之后) 由该任务再执行一轮,而不是并发执行
+    assertTrue(registration.trigger());
+    release.countDown();
+    assertTrue(StandInFixtures.waitFor(() -> calls.get() == 2, 5_000));
+
+    hub.unregister(registration);
+    assertFalse(registration.trigger());
+  }
+
+  @Test
+  public void testAwaitExclusive() throws Exception {
+    hub = hub("exclusive", 2);
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    Registration registration = hub.register(sender(() -> {
+      calls.incrementAndGet();
+      sending.countDown();
+      awaitQuietly(release);
+      return true;
+    }));
+    registration.trigger();
+    sending.await();
+    hub.unregister(registration);
+
+    // 正在执行的发送任务结束前不能独占
+    assertFalse(registration.awaitExclusive(100));
+    CountDownLatch exclusive = new CountDownLatch(1);
+    Thread stopper = new Thread(() -> {
+      if (registration.awaitExclusive(5_000)) {
+        exclusive.countDown();
+      }
+    });
+    stopper.start();
+    Thread.sleep(100);
+    assertEquals(1, exclusive.getCount());
+    release.countDown();
+    assertTrue(exclusive.await(5, TimeUnit.SECONDS));
+    stopper.join();
+
+    // 已注销的发送方不再被调度,结束独占后可再次独占 (重复 stop)
+    assertFalse(registration.trigger());
+    Thread.sleep(100);
+    assertEquals(1, calls.get());
+    assertFalse(registration.awaitExclusive(100));
+    registration.releaseExclusive();
+    assertTrue(registration.awaitExclusive(100));
+  }
+
+  @Test
+  public void testErrorReleasesSender() throws Exception {
+    hub = hub("error", 1);
+    AtomicInteger calls = new AtomicInteger();
+    Registration registration = hub.register(sender(() -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new StackOverflowError();
+      }
+      return false;
+    }));
+    registration.trigger();
+    assertTrue(StandInFixtures.waitFor(() -> calls.get() == 1, 5_000));
+    Thread.sleep(100);
+    registration.trigger();
+    assertTrue(StandInFixtures.waitFor(() -> calls.get() == 2, 5_000));
+  }
+
+  @Test
+  public void testPrivateHubLifecycle() throws Exception {
+    int privateThreads = hubThreads("private");
+    LoghubAppender<ILoggingEvent> appender = StandInFixtures.appender(loggerContext, server,
+        "private");
+    appender.setShutdownTimeout(10);
+    appender.start();
+    assertTrue(appender.isStarted());
+    assertTrue(hubThreads("private") > privateThreads);
+    StandInFixtures.logger(loggerContext, appender, "private").info("private event");
+    appender.stop();
+    assertEquals(1, server.getAcceptedEvents());
+    assertTrue(StandInFixtures.waitFor(() -> hubThreads("private") == privateThreads, 5_000));
+
+    // 启动失败时不创建独立 hub
+    LoghubAppender<ILoggingEvent> invalid = StandInFixtures.appender(loggerContext, server,
+        "invalid");
+    MaskRule mask = new MaskRule();
+    mask.setType("digits");
+    mask.setPattern("card");
+    invalid.addMask(mask);
+    invalid.start();
+    assertFalse(invalid.isStarted());
+    assertEquals(privateThreads, hubThreads("private"));
+  }
+
+  private ClsHub hub(String name, int threads) {
+    ClsHub created = new ClsHub();
+    created.setContext(loggerContext);
+    created.setName(name);
+    created.setThreads(threads);
+    created.start();
+    return created;
+  }
+
+  private LoghubAppender<ILoggingEvent> appender(String topic) {
+    LoghubAppender<ILoggingEvent> appender = StandInFixtures.appender(loggerContext, server,
+        topic);
+    appender.setName(topic);
+    appender.setHub(hub.getName());
+    appender.setSendInterval(1);
+    appender.start();
+    return appender;
+  }
+
+  private static Sender sender(SendOnce sendOnce) {
+    return new Sender() {
+      @Override
+      public boolean sendOnce() {
+        return sendOnce.sendOnce();
+      }
+
+      @Override
+      public int getSendInterval() {
+        return 1;
+      }
+    };
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static int hubThreads(String name) {
+    String prefix = "cls-hub-" + name + "-thread-";
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith(prefix) && thread.isAlive()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static String message(Log log) {
+    for (Content content : log.getContentsList()) {
+      if ("formattedMessage".equals(content.getKey())) {
+        return content.getValue();
+      }
+    }
+    return "";
+  }
+
+  private interface SendOnce {
+
+    boolean sendOnce();
+  }
+}
@@ -0,0 +1,364 @@
+package com.sevlow.logback;
+
+import cls.Cls.Log;
+import cls.Cls.LogGroup;
+import cls.Cls.LogGroupList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.HmacUtils;
+
+/**
+ * 本地 CLS /structuredlog 替身服务,支持注入慢响应与错误响应
+ */
+public class ClsStandInServer implements AutoCloseable {
+
+  // 解压缓冲区上限 16MB
+  private static final int MAX_DECOMPRESSED_BYTES = 16 * 1024 * 1024;
+
+  private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance()
+      .safeDecompressor();
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder acceptedEvents = new LongAdder();
+
+  private final LongAdder rejectedEvents = new LongAdder();
+
+  private final LongAdder rejectedRequests = new LongAdder();
+
+  private final LongAdder slowRequests = new LongAdder();
+
+  private final LongAdder receivedBytes = new LongAdder();
+
+  private final LongAdder signatureFailures = new LongAdder();
+
+  private final AtomicInteger concurrentRequests = new AtomicInteger();
+
+  private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+  private volatile double slowRate;
+
+  private volatile long slowMillis;
+
+  private volatile double errorRate;
+
+  private volatile int errorStatus = 500;
+
+  private volatile int maxLogsPerRequest = Integer.MAX_VALUE;
+
+  private volatile String secretKey;
+
+  private volatile Consumer<Log> onAccepted = log -> {
+  };
+
+  private volatile Consumer<LogGroup> onAcceptedGroup = logGroup -> {
+  };
+
+  public ClsStandInServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    executor = Executors.newFixedThreadPool(16);
+    server.setExecutor(executor);
+    server.createContext("/structuredlog", this::handle);
+    server.start();
+  }
+
+  public String getEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * 慢响应注入
+   *
+   * @param rate   比例 [0,1]
+   * @param millis 延迟毫秒
+   */
+  public void injectSlow(double rate, long millis) {
+    this.slowRate = rate;
+    this.slowMillis = millis;
+  }
+
+  /**
+   * 错误响应注入
+   *
+   * @param rate   比例 [0,1]
+   * @param status http 状态码
+   */
+  public void injectError(double rate, int status) {
+    this.errorRate = rate;
+    this.errorStatus = status;
+  }
+
+  /**
+   * 单个请求的日志数上限,超出返回 413
+   *
+   * @param maxLogsPerRequest 日志数上限
+   */
+  public void limitLogsPerRequest(int maxLogsPerRequest) {
+    this.maxLogsPerRequest = maxLogsPerRequest;
+  }
+
+  /**
+   * 按收到的请求头 (含 Host) 校验签名,不一致时返回 401
+   *
+   * @param secretKey 签名密钥,null 为不校验
+   */
+  public void verifySignature(String secretKey) {
+    this.secretKey = secretKey;
+  }
+
+  public void onAccepted(Consumer<Log> onAccepted) {
+    this.onAccepted = onAccepted;
+  }
+
+  public void onAcceptedGroup(Consumer<LogGroup> onAcceptedGroup) {
+    this.onAcceptedGroup = onAcceptedGroup;
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+    try {
+      doHandle(exchange);
+    } finally {
+      concurrentRequests.decrementAndGet();
+    }
+  }
+
+  private void doHandle(HttpExchange exchange) throws IOException {
+    requests.increment();
+    byte[] body = readAll(exchange.getRequestBody());
+    receivedBytes.add(body.length);
+
+    String key = secretKey;
+    if (key != null && !signatureMatches(exchange, key)) {
+      signatureFailures.increment();
+      respond(exchange, 401, "{\"errorcode\":\"AuthFailure.SignatureFailure\","
+          + "\"errormessage\":\"signature mismatch\"}");
+      return;
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (random.nextDouble() < slowRate) {
+      slowRequests.increment();
+      try {
+        Thread.sleep(slowMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    LogGroupList logGroupList;
+    try {
+      logGroupList = LogGroupList.parseFrom(decompress(exchange, body));
+    } catch (Exception e) {
+      respond(exchange, 400, "{\"errorcode\":\"InvalidContent\",\"errormessage\":\""
+          + e.getMessage() + "\"}");
+      return;
+    }
+
+    int logs = 0;
+    for (LogGroup logGroup : logGroupList.getLogGroupListList()) {
+      logs += logGroup.getLogsCount();
+    }
+    if (logs > maxLogsPerRequest) {
+      rejectedRequests.increment();
+      rejectedEvents.add(logs);
+      respond(exchange, 413, "{\"errorcode\":\"LogSizeExceed\",\"errormessage\":\""
+          + logs + " logs\"}");
+      return;
+    }
+
+    boolean reject = random.nextDouble() < errorRate;
+    for (LogGroup logGroup : logGroupList.getLogGroupListList()) {
+      if (reject) {
+        rejectedEvents.add(logGroup.getLogsCount());
+        continue;
+      }
+      for (Log log : logGroup.getLogsList()) {
+        acceptedEvents.increment();
+        onAccepted.accept(log);
+      }
+      onAcceptedGroup.accept(logGroup);
+    }
+    if (reject) {
+      rejectedRequests.increment();
+      respond(exchange, errorStatus,
+          "{\"errorcode\":\"" + errorCodeOf(errorStatus) + "\",\"errormessage\":\"injected\"}");
+    } else {
+      respond(exchange, 200, "");
+    }
+  }
+
+  /**
+   * 按 q-header-list / q-url-param-list 从实际收到的请求重新计算签名
+   */
+  private static boolean signatureMatches(HttpExchange exchange, String secretKey)
+      throws UnsupportedEncodingException {
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization == null) {
+      return false;
+    }
+    Map<String, String> fields = parsePairs(authorization, false);
+    Map<String, String> headers = new TreeMap<>();
+    for (String name : split(fields.get("q-header-list"))) {
+      headers.put(name, exchange.getRequestHeaders().getFirst(name));
+    }
+    Map<String, String> query = parsePairs(exchange.getRequestURI().getRawQuery(), true);
+    Map<String, String> params = new TreeMap<>();
+    for (String name : split(fields.get("q-url-param-list"))) {
+      params.put(name, query.get(name));
+    }
+    String formatStr = exchange.getRequestMethod().toLowerCase() + "\n"
+        + exchange.getRequestURI().getPath() + "\n" + format(params) + "\n"
+        + format(headers) + "\n";
+    String stringToSign = "sha1\n" + fields.get("q-sign-time") + "\n"
+        + DigestUtils.sha1Hex(formatStr) + "\n";
+    String signKey = HmacUtils.hmacSha1Hex(secretKey, String.valueOf(fields.get("q-key-time")));
+    return HmacUtils.hmacSha1Hex(signKey, stringToSign).equals(fields.get("q-signature"));
+  }
+
+  private static Map<String, String> parsePairs(String text, boolean decode)
+      throws UnsupportedEncodingException {
+    Map<String, String> pairs = new HashMap<>();
+    if (text == null) {
+      return pairs;
+    }
+    for (String pair : text.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        String value = pair.substring(eq + 1);
+        pairs.put(pair.substring(0, eq), decode ? URLDecoder.decode(value, "UTF-8") : value);
+      }
+    }
+    return pairs;
+  }
+
+  private static String[] split(String list) {
+    return list == null || list.isEmpty() ? new String[0] : list.split(";");
+  }
+
+  private static String format(Map<String, String> sorted) throws UnsupportedEncodingException {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, String> entry : sorted.entrySet()) {
+      if (builder.length() > 0) {
+        builder.append('&');
+      }
+      builder.append(URLEncoder.encode(entry.getKey(), "UTF-8").replace("*", "%2A"))
+          .append('=')
+          .append(entry.getValue() == null ? ""
+              : URLEncoder.encode(entry.getValue(), "UTF-8").replace("*", "%2A"));
+    }
+    return builder.toString();
+  }
+
+  private static String errorCodeOf(int status) {
+    switch (status) {
+      case 401:
+        return "AuthFailure";
+      case 404:
+        return "TopicNotExist";
+      case 429:
+        return "SpeedQuotaExceed";
+      default:
+        return status >= 500 ? "InternalError" : "InvalidContent";
+    }
+  }
+
+  private byte[] decompress(HttpExchange exchange, byte[] body) {
+    if (!"lz4".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("x-cls-compress-type"))) {
+      return body;
+    }
+    byte[] buffer = new byte[Math.min(MAX_DECOMPRESSED_BYTES, Math.max(1024, body.length * 255))];
+    int length = DECOMPRESSOR.decompress(body, 0, body.length, buffer, 0, buffer.length);
+    byte[] data = new byte[length];
+    System.arraycopy(buffer, 0, data, 0, length);
+    return data;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    if (bytes.length > 0) {
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(bytes);
+      }
+    }
+    exchange.close();
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException {
+    ByteArrayOutputStream baOs = new ByteArrayOutputStream();
+    byte[] temp = new byte[8192];
+    int n;
+    while ((n = is.read(temp)) >= 0) {
+      baOs.write(temp, 0, n);
+    }
+    return baOs.toByteArray();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getAcceptedEvents() {
+    return acceptedEvents.sum();
+  }
+
+  public long getRejectedEvents() {
+    return rejectedEvents.sum();
+  }
+
+  public long getRejectedRequests() {
+    return rejectedRequests.sum();
+  }
+
+  public long getSlowRequests() {
+    return slowRequests.sum();
+  }
+
+  public long getReceivedBytes() {
+    return receivedBytes.sum();
+  }
+
+  public long getSignatureFailures() {
+    return signatureFailures.sum();
+  }
+
+  /**
+   * @return 同时处理中的请求数峰值
+   */
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
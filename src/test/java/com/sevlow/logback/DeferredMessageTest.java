@@ -0,0 +1,135 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.logback.DeferredMessage;
+import com.sevlow.cls.logback.LoghubAppender;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * 延迟格式化与采集时格式化结果一致
+ */
+public class DeferredMessageTest {
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  private Logger logger;
+
+  private final Queue<String> messages = new ConcurrentLinkedQueue<>();
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    server.onAccepted(this::inspect);
+    loggerContext = new LoggerContext();
+    appender = StandInFixtures.appender(loggerContext, server, "deferred");
+    // 只在 flush 时发送
+    appender.setSendInterval(5);
+    appender.setDeferFormatting("true");
+    appender.start();
+    logger = StandInFixtures.logger(loggerContext, appender, "deferred");
+  }
+
+  @After
+  public void after() {
+    appender.stop();
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testSameAsEagerFormatting() throws Exception {
+    Object[][] cases = {
+        {"中文 {} 与 {}", new Object[]{"参数", 42}},
+        {"{} {} {}", new Object[]{UUID.randomUUID(), new BigDecimal("3.14159"),
+            LocalDate.of(2020, 1, 1)}},
+        {"missing {} {}", new Object[]{1L}},
+        {"escaped \\{} {}", new Object[]{'c', null}},
+        {"extra {}", new Object[]{true, 2.5d}},
+    };
+    List<String> expected = new ArrayList<>();
+    for (Object[] c : cases) {
+      Object[] arguments = (Object[]) c[1];
+      assertTrue(DeferredMessage.isDeferrable(arguments));
+      logger.info((String) c[0], arguments);
+      expected.add(MessageFormatter.arrayFormat((String) c[0], arguments).getMessage());
+    }
+    appender.flush().get(10, TimeUnit.SECONDS);
+    assertEquals(expected, new ArrayList<>(messages));
+  }
+
+  @Test
+  public void testMutableArgumentsFormattedEagerly() throws Exception {
+    StringBuilder builder = new StringBuilder("before");
+    List<String> list = new ArrayList<>();
+    list.add("before");
+    assertFalse(DeferredMessage.isDeferrable(new Object[]{builder}));
+    assertFalse(DeferredMessage.isDeferrable(new Object[]{list}));
+    // 应用自定义枚举可能带有可变字段
+    assertFalse(DeferredMessage.isDeferrable(new Object[]{Mode.ON}));
+
+    logger.info("builder {} list {} mode {}", builder, list, Mode.ON);
+    builder.setLength(0);
+    builder.append("after");
+    list.set(0, "after");
+    Mode.ON.label = "after";
+    appender.flush().get(10, TimeUnit.SECONDS);
+    assertEquals("builder before list [before] mode before", messages.poll());
+  }
+
+  @Test
+  public void testThrowingToString() throws Exception {
+    Object broken = new Object() {
+      @Override
+      public String toString() {
+        throw new IllegalStateException("broken");
+      }
+    };
+    logger.info("broken {} value {}", broken, 1);
+    logger.info("after broken");
+    appender.flush().get(10, TimeUnit.SECONDS);
+    assertEquals("broken [FAILED toString()] value 1", messages.poll());
+    assertEquals("after broken", messages.poll());
+  }
+
+  private void inspect(Log log) {
+    for (Content content : log.getContentsList()) {
+      if ("formattedMessage".equals(content.getKey())) {
+        messages.add(content.getValue());
+      }
+    }
+  }
+
+  private enum Mode {
+    ON;
+
+    private String label = "before";
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import cls.Cls.LogGroup;
+import cls.Cls.LogGroupList;
+import com.sevlow.cls.config.ClsConfig;
+import com.sevlow.cls.logback.CircuitBreaker;
+import com.sevlow.cls.logback.DeliveryResult;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.Producer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 上传结果与 flush
+ */
+public class DeliveryTest {
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    loggerContext = new LoggerContext();
+  }
+
+  @After
+  public void after() {
+    if (appender != null) {
+      appender.stop();
+    }
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testUploadResult() throws Exception {
+    ClsConfig config = StandInFixtures.config(server, "delivery");
+    config.setRetries(1);
+    Producer producer = new Producer(config);
+
+    // 超出服务端限制时拆分为 4 个请求
+    server.limitLogsPerRequest(16);
+    DeliveryResult result = producer.lz4Upload("delivery", lgl(40)).get(10, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.DELIVERED, result.getStatus());
+    assertEquals(40, result.getDeliveredLogs());
+    assertEquals(0, result.getRejectedLogs());
+    assertEquals(7, result.getAttempts());
+    assertTrue(result.getBytes() > 0);
+    assertEquals(40, server.getAcceptedEvents());
+
+    // 5xx 重试 1 次后放弃
+    server.injectError(1.0, 500);
+    result = producer.lz4Upload("delivery", lgl(10)).get(10, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.REJECTED, result.getStatus());
+    assertEquals(10, result.getRejectedLogs());
+    assertEquals(2, result.getAttempts());
+    assertEquals(0, result.getBytes());
+    assertTrue(result.getLatencyMillis() >= 500);
+  }
+
+  @Test
+  public void testThrottleRetriesLimit() throws Exception {
+    ClsConfig config = StandInFixtures.config(server, "delivery");
+    config.setThrottleRetries(2);
+    Producer producer = new Producer(config);
+
+    // 限流重发次数累计计算,超出上限后放弃
+    server.injectError(1.0, 429);
+    DeliveryResult result = producer.lz4Upload("delivery", lgl(10)).get(15, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.REJECTED, result.getStatus());
+    assertEquals(3, result.getAttempts());
+    assertEquals(3, server.getRequests());
+  }
+
+  @Test
+  public void testSignedWithEndpointHost() throws Exception {
+    ClsConfig config = StandInFixtures.config(server, "delivery");
+    Producer producer = new Producer(config);
+
+    // 自定义地址 (含端口) 的 Host 参与签名
+    server.verifySignature("delivery");
+    DeliveryResult result = producer.lz4Upload("delivery", lgl(10)).get(10, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.DELIVERED, result.getStatus());
+    assertEquals(0, server.getSignatureFailures());
+
+    server.verifySignature("other");
+    result = producer.lz4Upload("delivery", lgl(10)).get(10, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.REJECTED, result.getStatus());
+    assertEquals(1, server.getSignatureFailures());
+  }
+
+  @Test
+  public void testRetryParkedWhileCircuitOpen() throws Exception {
+    ClsConfig config = StandInFixtures.config(server, "delivery");
+    config.setRetries(1);
+    config.setCircuitFailureThreshold(1);
+    config.setCircuitOpenMillis(1_000);
+    Producer producer = new Producer(config);
+
+    // 首次 5xx 触发熔断,数据包保留到熔断到期后作为探测请求重发
+    server.injectError(1.0, 503);
+    CompletableFuture<DeliveryResult> future = producer.lz4Upload("delivery", lgl(10));
+    assertTrue(StandInFixtures.waitFor(() -> server.getRequests() == 1, 5_000));
+    assertEquals(CircuitBreaker.State.OPEN, producer.getCircuitState());
+    server.injectError(0, 503);
+    Thread.sleep(300);
+    assertFalse(future.isDone());
+    assertEquals(1, server.getRequests());
+
+    DeliveryResult result = future.get(10, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.DELIVERED, result.getStatus());
+    assertEquals(2, result.getAttempts());
+    assertTrue(result.getLatencyMillis() >= 1_000);
+    assertEquals(CircuitBreaker.State.CLOSED, producer.getCircuitState());
+    assertEquals(10, server.getAcceptedEvents());
+
+    // 探测请求仍失败时计入重试次数,耗尽后放弃
+    server.injectError(1.0, 503);
+    result = producer.lz4Upload("delivery", lgl(10)).get(10, TimeUnit.SECONDS);
+    assertEquals(DeliveryResult.Status.REJECTED, result.getStatus());
+    assertEquals(2, result.getAttempts());
+    assertEquals(10, producer.getRejectedLogs());
+  }
+
+  @Test
+  public void testFlush() throws Exception {
+    appender = appender();
+    // 周期发送不会在测试期间触发
+    appender.setSendInterval(5);
+    appender.setDrainParallelism(4);
+    appender.start();
+    Logger logger = logger();
+    server.injectSlow(1.0, 200);
+
+    for (int i = 0; i < 10_000; i++) {
+      logger.info("delivery event {}", i);
+    }
+    CompletableFuture<Void> flushed = appender.flush();
+    // 由发送线程发送,慢响应的数据包完成前不会完成
+    assertFalse(flushed.isDone());
+    flushed.get(10, TimeUnit.SECONDS);
+    assertEquals(10_000, server.getAcceptedEvents());
+
+    // 没有新日志时只等待发送中的数据包
+    assertTrue(appender.awaitDelivered(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWaitOnStop() throws Exception {
+    appender = appender();
+    appender.setShutdownTimeout(10);
+    appender.start();
+    Logger logger = logger();
+    server.injectSlow(1.0, 500);
+
+    for (int i = 0; i < 100; i++) {
+      logger.info("delivery event {}", i);
+    }
+    appender.stop();
+    assertEquals(100, server.getAcceptedEvents());
+  }
+
+  private LoghubAppender<ILoggingEvent> appender() {
+    return StandInFixtures.appender(loggerContext, server, "delivery");
+  }
+
+  private Logger logger() {
+    return StandInFixtures.logger(loggerContext, appender, "delivery");
+  }
+
+  private static LogGroupList lgl(int logs) {
+    LogGroup.Builder group = LogGroup.newBuilder();
+    for (int i = 0; i < logs; i++) {
+      group.addLogs(Log.newBuilder()
+          .setTime(System.currentTimeMillis())
+          .addContents(Content.newBuilder().setKey("formattedMessage").setValue("event " + i)));
+    }
+    return LogGroupList.newBuilder().addLogGroupList(group).build();
+  }
+}
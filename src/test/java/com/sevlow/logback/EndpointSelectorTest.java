@@ -0,0 +1,60 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sevlow.cls.ConsoleLog;
+import com.sevlow.cls.logback.EndpointSelector;
+import com.squareup.okhttp.OkHttpClient;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EndpointSelectorTest {
+
+  private ClsStandInServer slow;
+
+  private ClsStandInServer fast;
+
+  @Before
+  public void before() throws Exception {
+    slow = new ClsStandInServer();
+    slow.injectSlow(1, 300);
+    fast = new ClsStandInServer();
+  }
+
+  @After
+  public void after() {
+    slow.close();
+    fast.close();
+  }
+
+  @Test
+  public void testSelectLowestLatency() {
+    EndpointSelector selector = selector();
+    assertEquals(slow.getEndpoint(), selector.current());
+
+    selector.probe();
+    assertEquals(fast.getEndpoint(), selector.current());
+    assertTrue(selector.getLatencies().get(slow.getEndpoint()) >= 300);
+  }
+
+  @Test
+  public void testFailover() {
+    EndpointSelector selector = selector();
+    selector.probe();
+    assertEquals(fast.getEndpoint(), selector.current());
+
+    fast.close();
+    selector.probe();
+    assertEquals(slow.getEndpoint(), selector.current());
+    assertEquals(Long.MAX_VALUE, (long) selector.getLatencies().get(fast.getEndpoint()));
+  }
+
+  private EndpointSelector selector() {
+    return new EndpointSelector(Arrays.asList(slow.getEndpoint(), fast.getEndpoint()),
+        new OkHttpClient(), 2_000, Runnable::run, new ConsoleLog("test", false));
+  }
+
+}
@@ -0,0 +1,157 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.logback.HostIdentity;
+import com.sevlow.cls.logback.LoghubAppender;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 本机标识后台解析与首个数据包前不建立连接
+ */
+public class HostIdentityTest {
+
+  private LoggerContext loggerContext;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  @Before
+  public void before() {
+    loggerContext = new LoggerContext();
+  }
+
+  @After
+  public void after() {
+    if (appender != null) {
+      appender.stop();
+    }
+    loggerContext.stop();
+  }
+
+  @Test
+  public void testFallbackWhilePending() {
+    CompletableFuture<HostIdentity> future = new CompletableFuture<>();
+    HostIdentity.Lookup lookup = new HostIdentity.Lookup(future, 100);
+
+    // 截止时间前等待,之后不再阻塞
+    long start = System.currentTimeMillis();
+    assertNull(lookup.get());
+    assertTrue(System.currentTimeMillis() - start >= 90);
+    start = System.currentTimeMillis();
+    assertNull(lookup.get());
+    assertTrue(System.currentTimeMillis() - start < 90);
+
+    // 解析完成后发布解析结果
+    HostIdentity resolved = HostIdentity.of("10.0.0.1", "resolved-host");
+    future.complete(resolved);
+    assertSame(resolved, lookup.get());
+    assertSame(resolved, lookup.get());
+  }
+
+  @Test
+  public void testWaitBeforeDeadline() {
+    CompletableFuture<HostIdentity> future = new CompletableFuture<>();
+    HostIdentity resolved = HostIdentity.of("10.0.0.2", "slow-host");
+    CompletableFuture.runAsync(() -> {
+      sleep(100);
+      future.complete(resolved);
+    });
+    assertSame(resolved, new HostIdentity.Lookup(future, 5_000).get());
+  }
+
+  @Test
+  public void testResolvedIdentityUploaded() throws Exception {
+    try (ClsStandInServer server = new ClsStandInServer()) {
+      Queue<Map<String, String>> logs = new ConcurrentLinkedQueue<>();
+      server.onAccepted(log -> logs.add(contents(log)));
+      appender = StandInFixtures.appender(loggerContext, server, "identity");
+      appender.start();
+      StandInFixtures.logger(loggerContext, appender, "identity").info("identity event");
+      appender.flush().get(10, TimeUnit.SECONDS);
+
+      HostIdentity resolved = HostIdentity.resolve().get(5, TimeUnit.SECONDS);
+      Map<String, String> contents = logs.poll();
+      assertEquals(resolved.getIp(), contents.get("ip"));
+      assertEquals(resolved.getHostname(), contents.get("hostname"));
+    }
+  }
+
+  @Test
+  public void testNoConnectionBeforeFirstEvent() throws Exception {
+    try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      Queue<Socket> sockets = new ConcurrentLinkedQueue<>();
+      AtomicInteger connections = new AtomicInteger();
+      Thread acceptor = new Thread(() -> {
+        while (!serverSocket.isClosed()) {
+          try {
+            sockets.add(serverSocket.accept());
+            connections.incrementAndGet();
+          } catch (IOException e) {
+            return;
+          }
+        }
+      }, "identity-acceptor");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      appender = new LoghubAppender<>();
+      appender.setContext(loggerContext);
+      appender.setName("CLS");
+      appender.setRegion("ap-guangzhou");
+      appender.setSecretId("identity");
+      appender.setSecretKey("identity");
+      appender.setTopicId("identity");
+      appender.setEndpoint("http://127.0.0.1:" + serverSocket.getLocalPort());
+      appender.setSendInterval(1);
+      appender.start();
+
+      // 发送周期已到但没有日志
+      Thread.sleep(1_500);
+      assertEquals(0, connections.get());
+
+      loggerContext.getLogger("identity").addAppender(appender);
+      loggerContext.getLogger("identity").info("first event");
+      appender.flush();
+      assertTrue(StandInFixtures.waitFor(() -> connections.get() > 0, 5_000));
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  private static Map<String, String> contents(Log log) {
+    Map<String, String> contents = new ConcurrentHashMap<>();
+    for (Content content : log.getContentsList()) {
+      contents.put(content.getKey(), content.getValue());
+    }
+    return contents;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
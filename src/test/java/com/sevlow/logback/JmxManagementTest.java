@@ -0,0 +1,97 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.MemoryBudget;
+import java.lang.management.ManagementFactory;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 通过 JMX 在运行中调整发送参数
+ */
+public class JmxManagementTest {
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private Logger logger;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+  private ObjectName name;
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    loggerContext = new LoggerContext();
+    loggerContext.setName("jmx-test");
+    appender = StandInFixtures.appender(loggerContext, server, "jmx");
+    appender.setSendInterval(1);
+    appender.setJmx("true");
+    appender.start();
+    logger = StandInFixtures.logger(loggerContext, appender, "jmx");
+    name = new ObjectName("com.sevlow.cls:type=LoghubAppender,context=\"jmx-test\",name=\"CLS\"");
+  }
+
+  @After
+  public void after() {
+    appender.stop();
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testTuneWhileRunning() throws Exception {
+    assertTrue(mBeanServer.isRegistered(name));
+
+    mBeanServer.setAttribute(name, new Attribute("SendInterval", 3));
+    mBeanServer.setAttribute(name, new Attribute("SendPackLogs", 100_000));
+    mBeanServer.setAttribute(name, new Attribute("MaxSendRetries", 5));
+    mBeanServer.setAttribute(name, new Attribute("Concurrency", 2));
+    assertEquals(3, appender.getSendInterval());
+    // 超出范围按配置规则取边界值
+    assertEquals(8_000, mBeanServer.getAttribute(name, "SendPackLogs"));
+    assertEquals(5, mBeanServer.getAttribute(name, "MaxSendRetries"));
+    assertEquals(2, mBeanServer.getAttribute(name, "Concurrency"));
+
+    mBeanServer.invoke(name, "configureBuffer", new Object[]{64L * 1024 * 1024, 50, 70, 4},
+        new String[]{long.class.getName(), int.class.getName(), int.class.getName(),
+            int.class.getName()});
+    MemoryBudget budget = appender.getMemoryBudget();
+    assertEquals(64L * 1024 * 1024, budget.getMaxBytes());
+    assertEquals(50, budget.getSampleWatermark());
+    assertEquals(70, budget.getDropWatermark());
+    assertEquals(4, budget.getSampleRate());
+    mBeanServer.setAttribute(name, new Attribute("SampleRate", 20));
+    assertEquals(20, budget.getSampleRate());
+    assertEquals(64L * 1024 * 1024, budget.getMaxBytes());
+
+    // 切换压缩方式后继续上报
+    mBeanServer.setAttribute(name, new Attribute("CompressType", "none"));
+    for (int i = 0; i < 100; i++) {
+      logger.info("jmx event {}", i);
+    }
+    assertTrue(StandInFixtures.waitFor(() -> server.getAcceptedEvents() == 100, 10_000));
+    assertFalse(appender.getProducer().isCompress());
+    assertEquals(5, appender.getProducer().getRetries());
+    assertEquals(0L, mBeanServer.getAttribute(name, "BufferedLogs"));
+    assertEquals("CLOSED", mBeanServer.getAttribute(name, "CircuitState"));
+
+    appender.stop();
+    assertFalse(mBeanServer.isRegistered(name));
+  }
+}
@@ -0,0 +1,391 @@
+package com.sevlow.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.MemoryBudget;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.MDC;
+
+/**
+ * 端到端压测 / 稳定性测试
+ * <p>
+ * 通过真实的 LoggerContext 驱动 LoghubAppender,上报到本地 CLS 替身服务,统计吞吐、端到端延迟、
+ * 各原因的丢失数、GC 停顿与分配速率
+ * <p>
+ * 运行 : mvn test-compile exec:java -Dmaven.test.skip=false -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.sevlow.logback.LoadHarness -Dexec.args="rate=20000 threads=8 duration=300"
+ * <p>
+ * 并发扩展性 : -Dexec.args="rate=0 duration=10 threadSweep=1,2,4,8,16,32,64 captureStripes=64"
+ * (rate=0 表示不限速,依次以不同线程数运行并输出写入吞吐)
+ */
+public class LoadHarness {
+
+  private static final String SEQ = "seq";
+
+  // 延迟统计上限 120 秒,按毫秒分桶
+  private static final int MAX_LATENCY_MILLIS = 120_000;
+
+  // 最多跟踪 2000w 条日志的发送时间
+  private static final int MAX_TRACKED_EVENTS = 20_000_000;
+
+  // 不限速时只跟踪前 200w 条日志的延迟
+  private static final int MAX_UNTHROTTLED_TRACKED_EVENTS = 2_000_000;
+
+  public static void main(String[] args) throws Exception {
+    Options options = Options.parse(args);
+    System.out.println(options);
+    if (options.threadSweep == null) {
+      System.out.println(run(options));
+    } else {
+      for (int threads : options.threadSweep) {
+        options.threads = threads;
+        Report report = run(options);
+        System.out.println(String.format(Locale.ROOT,
+            "threads=%d captureStripes=%d -> produced %.0f events/s, acked %.0f events/s,"
+                + " unaccounted=%d",
+            threads, options.captureStripes, report.produced / report.seconds,
+            report.acked / report.seconds, report.getUnaccounted()));
+      }
+    }
+    System.exit(0);
+  }
+
+  public static Report run(Options options) throws Exception {
+    try (ClsStandInServer server = new ClsStandInServer()) {
+      server.injectSlow(options.slowRate, options.slowMillis);
+      server.injectError(options.errorRate, options.errorStatus);
+
+      int capacity = options.rate > 0 ? (int) Math.min(MAX_TRACKED_EVENTS,
+          (long) options.rate * options.duration * 2 + 1024) : MAX_UNTHROTTLED_TRACKED_EVENTS;
+      AtomicLongArray sentNanos = new AtomicLongArray(capacity);
+      AtomicLongArray latencies = new AtomicLongArray(MAX_LATENCY_MILLIS + 1);
+      server.onAccepted(log -> {
+        long seq = seqOf(log);
+        if (seq >= 0 && seq < capacity) {
+          long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNanos.get((int) seq));
+          latencies.incrementAndGet((int) Math.min(MAX_LATENCY_MILLIS, Math.max(0, millis)));
+        }
+      });
+
+      LoggerContext loggerContext = new LoggerContext();
+      LoghubAppender<ILoggingEvent> appender = StandInFixtures
+          .appender(loggerContext, server, "harness");
+      appender.setMdcFields(SEQ);
+      appender.setSendInterval(1);
+      appender.setSendPackLogs(options.sendPackLogs);
+      appender.setMaxBufferBytes(options.maxBufferBytes);
+      appender.setCaptureStripes(options.captureStripes);
+      appender.setOffHeapBufferBytes(options.offHeapBufferBytes);
+      appender.start();
+
+      Logger logger = StandInFixtures.logger(loggerContext, appender, "harness", Level.DEBUG);
+
+      Snapshot before = Snapshot.take();
+      AtomicLong sequence = new AtomicLong();
+      AtomicLong producerAllocatedBytes = new AtomicLong();
+      long startNanos = System.nanoTime();
+      long deadline = startNanos + TimeUnit.SECONDS.toNanos(options.duration);
+      long intervalNanos = options.rate > 0 ? (long) (1e9 * options.threads / options.rate) : 0;
+
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < options.threads; t++) {
+        Thread thread = new Thread(() -> {
+          RuntimeException exception = new RuntimeException("harness exception");
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          long next = System.nanoTime();
+          while (next < deadline) {
+            long now = System.nanoTime();
+            if (now < next) {
+              LockSupport.parkNanos(next - now);
+              continue;
+            }
+            next = intervalNanos > 0 ? next + intervalNanos : now;
+            long seq = sequence.getAndIncrement();
+            MDC.put(SEQ, Long.toString(seq));
+            if (seq < capacity) {
+              sentNanos.set((int) seq, System.nanoTime());
+            }
+            if (random.nextDouble() < options.throwableRate) {
+              logger.error("harness event {} failed", seq, exception);
+            } else if (random.nextDouble() < options.debugRate) {
+              logger.debug("harness debug event {} from {}", seq, "load harness");
+            } else {
+              logger.info("harness event {} from {}", seq, "load harness");
+            }
+          }
+          MDC.remove(SEQ);
+          producerAllocatedBytes.addAndGet(Snapshot.currentThreadAllocatedBytes());
+        }, "harness-producer-" + t);
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      long produceNanos = System.nanoTime() - startNanos;
+      Snapshot after = Snapshot.take();
+
+      appender.stop();
+      MemoryBudget budget = appender.getMemoryBudget();
+      long produced = sequence.get();
+      long dropped = budget.getSampledEvents() + budget.getDroppedLowLevelEvents()
+          + budget.getDroppedFullEvents() + appender.getCircuitDroppedLogs().sum()
+          + appender.getArenaDroppedLogs().sum();
+      // 等待在途请求完成
+      long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainTimeout);
+      while (System.nanoTime() < drainDeadline
+          && server.getAcceptedEvents() + appender.getProducer().getRejectedLogs() + dropped
+          < produced) {
+        Thread.sleep(100);
+      }
+
+      Report report = new Report();
+      report.produced = produced;
+      report.acked = server.getAcceptedEvents();
+      report.seconds = produceNanos / 1e9;
+      report.sampled = budget.getSampledEvents();
+      report.droppedLowLevel = budget.getDroppedLowLevelEvents();
+      report.droppedFull = budget.getDroppedFullEvents();
+      report.circuitDropped = appender.getCircuitDroppedLogs().sum();
+      report.arenaDropped = appender.getArenaDroppedLogs().sum();
+      report.rejected = appender.getProducer().getRejectedLogs();
+      report.requests = server.getRequests();
+      report.rejectedRequests = server.getRejectedRequests();
+      report.slowRequests = server.getSlowRequests();
+      report.receivedBytes = server.getReceivedBytes();
+      report.gcCount = after.gcCount - before.gcCount;
+      report.gcMillis = after.gcMillis - before.gcMillis;
+      report.allocatedBytes = after.allocatedBytes - before.allocatedBytes
+          + producerAllocatedBytes.get();
+      report.p50 = percentile(latencies, 0.50);
+      report.p90 = percentile(latencies, 0.90);
+      report.p99 = percentile(latencies, 0.99);
+      report.p999 = percentile(latencies, 0.999);
+      report.max = percentile(latencies, 1.0);
+      loggerContext.stop();
+      return report;
+    }
+  }
+
+  private static long seqOf(Log log) {
+    for (Content content : log.getContentsList()) {
+      if (SEQ.equals(content.getKey())) {
+        return Long.parseLong(content.getValue());
+      }
+    }
+    return -1;
+  }
+
+  private static long percentile(AtomicLongArray histogram, double percentile) {
+    long total = 0;
+    for (int i = 0; i < histogram.length(); i++) {
+      total += histogram.get(i);
+    }
+    if (total == 0) {
+      return -1;
+    }
+    long target = (long) Math.ceil(total * percentile);
+    long seen = 0;
+    for (int i = 0; i < histogram.length(); i++) {
+      seen += histogram.get(i);
+      if (seen >= target) {
+        return i;
+      }
+    }
+    return MAX_LATENCY_MILLIS;
+  }
+
+  /**
+   * 压测参数
+   */
+  public static class Options {
+
+    int rate = 5_000;
+    int threads = 4;
+    int duration = 60;
+    int sendPackLogs = 3_000;
+    long maxBufferBytes = 32L * 1024 * 1024;
+    double throwableRate = 0.01;
+    double debugRate = 0.2;
+    double slowRate = 0.05;
+    long slowMillis = 2_000;
+    double errorRate = 0.01;
+    int errorStatus = 500;
+    int drainTimeout = 30;
+    int captureStripes;
+    long offHeapBufferBytes;
+    int[] threadSweep;
+
+    public static Options parse(String... args) {
+      Options options = new Options();
+      for (String arg : args) {
+        String[] kv = arg.split("=", 2);
+        if (kv.length != 2) {
+          throw new IllegalArgumentException("expect key=value : " + arg);
+        }
+        String value = kv[1];
+        switch (kv[0]) {
+          case "rate":
+            options.rate = Integer.parseInt(value);
+            break;
+          case "threads":
+            options.threads = Integer.parseInt(value);
+            break;
+          case "duration":
+            options.duration = Integer.parseInt(value);
+            break;
+          case "sendPackLogs":
+            options.sendPackLogs = Integer.parseInt(value);
+            break;
+          case "maxBufferBytes":
+            options.maxBufferBytes = Long.parseLong(value);
+            break;
+          case "throwableRate":
+            options.throwableRate = Double.parseDouble(value);
+            break;
+          case "debugRate":
+            options.debugRate = Double.parseDouble(value);
+            break;
+          case "slowRate":
+            options.slowRate = Double.parseDouble(value);
+            break;
+          case "slowMillis":
+            options.slowMillis = Long.parseLong(value);
+            break;
+          case "errorRate":
+            options.errorRate = Double.parseDouble(value);
+            break;
+          case "errorStatus":
+            options.errorStatus = Integer.parseInt(value);
+            break;
+          case "drainTimeout":
+            options.drainTimeout = Integer.parseInt(value);
+            break;
+          case "captureStripes":
+            options.captureStripes = Integer.parseInt(value);
+            break;
+          case "offHeapBufferBytes":
+            options.offHeapBufferBytes = Long.parseLong(value);
+            break;
+          case "threadSweep":
+            options.threadSweep = Arrays.stream(value.split(",")).map(String::trim)
+                .mapToInt(Integer::parseInt).toArray();
+            break;
+          default:
+            throw new IllegalArgumentException("unknown option : " + kv[0]);
+        }
+      }
+      return options;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "rate=%d threads=%d duration=%ds sendPackLogs=%d maxBufferBytes=%d throwableRate=%.3f"
+              + " debugRate=%.3f slowRate=%.3f slowMillis=%d errorRate=%.3f errorStatus=%d"
+              + " captureStripes=%d offHeapBufferBytes=%d threadSweep=%s",
+          rate, threads, duration, sendPackLogs, maxBufferBytes, throwableRate, debugRate,
+          slowRate, slowMillis, errorRate, errorStatus, captureStripes, offHeapBufferBytes,
+          Arrays.toString(threadSweep));
+    }
+  }
+
+  /**
+   * 压测结果
+   */
+  public static class Report {
+
+    long produced;
+    long acked;
+    double seconds;
+    long sampled;
+    long droppedLowLevel;
+    long droppedFull;
+    long circuitDropped;
+    long arenaDropped;
+    long rejected;
+    long requests;
+    long rejectedRequests;
+    long slowRequests;
+    long receivedBytes;
+    long gcCount;
+    long gcMillis;
+    long allocatedBytes;
+    long p50;
+    long p90;
+    long p99;
+    long p999;
+    long max;
+
+    public long getUnaccounted() {
+      return produced - acked - sampled - droppedLowLevel - droppedFull - circuitDropped
+          - arenaDropped - rejected;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "produced=%d acked=%d in %.1fs -> %.0f events/s%n"
+              + "latency(ms) p50=%d p90=%d p99=%d p99.9=%d max=%d%n"
+              + "loss sampled=%d droppedLowLevel=%d droppedFull=%d circuitDropped=%d"
+              + " arenaDropped=%d rejected=%d"
+              + " unaccounted=%d%n"
+              + "requests=%d rejected=%d slow=%d received=%.1fMB%n"
+              + "gc count=%d pause=%dms (%.2f%%) allocated=%.1fMB (%.1fMB/s)",
+          produced, acked, seconds, acked / seconds,
+          p50, p90, p99, p999, max,
+          sampled, droppedLowLevel, droppedFull, circuitDropped, arenaDropped, rejected,
+          getUnaccounted(),
+          requests, rejectedRequests, slowRequests, receivedBytes / 1048576.0,
+          gcCount, gcMillis, gcMillis / 10.0 / seconds,
+          allocatedBytes / 1048576.0, allocatedBytes / 1048576.0 / seconds);
+    }
+  }
+
+  /**
+   * GC 与分配统计快照 (分配量为存活线程的累计值,压测线程结束前自行上报)
+   */
+  private static class Snapshot {
+
+    long gcCount;
+    long gcMillis;
+    long allocatedBytes;
+
+    static Snapshot take() {
+      Snapshot snapshot = new Snapshot();
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        snapshot.gcCount += Math.max(0, gc.getCollectionCount());
+        snapshot.gcMillis += Math.max(0, gc.getCollectionTime());
+      }
+      com.sun.management.ThreadMXBean threadMXBean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long[] allocated = threadMXBean
+          .getThreadAllocatedBytes(threadMXBean.getAllThreadIds());
+      for (long bytes : allocated) {
+        snapshot.allocatedBytes += Math.max(0, bytes);
+      }
+      return snapshot;
+    }
+
+    static long currentThreadAllocatedBytes() {
+      com.sun.management.ThreadMXBean threadMXBean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sevlow.logback.LoadHarness.Options;
+import com.sevlow.logback.LoadHarness.Report;
+import org.junit.Test;
+
+public class LoadHarnessTest {
+
+  @Test
+  public void testNoLoss() throws Exception {
+    Options options = Options.parse("rate=2000", "threads=4", "duration=5",
+        "slowRate=0", "errorRate=0", "drainTimeout=15");
+    Report report = LoadHarness.run(options);
+    assertTrue(report.toString(), report.produced > 0);
+    assertEquals(report.toString(), report.produced, report.acked);
+  }
+
+  @Test
+  public void testStripedNoLoss() throws Exception {
+    Options options = Options.parse("rate=2000", "threads=8", "duration=5",
+        "slowRate=0", "errorRate=0", "drainTimeout=15", "captureStripes=4");
+    Report report = LoadHarness.run(options);
+    assertTrue(report.toString(), report.produced > 0);
+    assertEquals(report.toString(), report.produced, report.acked);
+  }
+
+  @Test
+  public void testOffHeapNoLoss() throws Exception {
+    Options options = Options.parse("rate=2000", "threads=4", "duration=5",
+        "slowRate=0", "errorRate=0", "drainTimeout=15", "offHeapBufferBytes=8388608",
+        "captureStripes=4");
+    Report report = LoadHarness.run(options);
+    assertTrue(report.toString(), report.produced > 0);
+    assertEquals(report.toString(), report.produced, report.acked);
+  }
+
+  @Test
+  public void testFaultInjection() throws Exception {
+    Options options = Options.parse("rate=2000", "threads=4", "duration=5",
+        "slowRate=0.2", "slowMillis=500", "errorRate=0.3", "drainTimeout=15");
+    Report report = LoadHarness.run(options);
+    assertTrue(report.toString(), report.acked > 0);
+    assertEquals(report.toString(), 0, report.getUnaccounted());
+  }
+}
@@ -0,0 +1,163 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.shipper.Checkpoint;
+import com.sevlow.cls.shipper.LogShipper;
+import com.sevlow.cls.shipper.LogShipper.Result;
+import com.sevlow.cls.shipper.ShipperOptions;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogShipperTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ClsStandInServer server;
+
+  private final Map<String, LongAdder> levels = new ConcurrentHashMap<>();
+
+  private final LongAdder timedLogs = new LongAdder();
+
+  @Before
+  public void before() throws IOException {
+    server = new ClsStandInServer();
+    server.onAccepted(this::inspect);
+  }
+
+  @After
+  public void after() {
+    server.close();
+  }
+
+  @Test
+  public void testShipAndResume() throws Exception {
+    Path logs = folder.newFolder("logs").toPath();
+    Path plain = logs.resolve("app.log");
+    Path json = logs.resolve("app.json");
+    write(plain, 3_000, i -> "2020-01-01 00:00:00 INFO plain line " + i);
+    write(json, 2_000, i -> "{\"time\":" + (1577836800 + i) + ",\"level\":\"WARN\",\"seq\":" + i
+        + ",\"ctx\":{\"user\":\"u" + i + "\"}}");
+    // 最后一行没有换行符
+    Files.write(plain, "tail line".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Path checkpoint = folder.getRoot().toPath().resolve("shipper.checkpoint");
+
+    Result first = ship(checkpoint, logs.toString());
+    assertNull(first.getFatalError());
+    assertEquals(5_001, first.getLines());
+    assertEquals(5_001, first.getDelivered());
+    assertEquals(5_001, server.getAcceptedEvents());
+    assertEquals(2_000, levels.get("WARN").sum());
+    assertEquals(2_000, timedLogs.sum());
+
+    // 已完成的文件不会重复上传
+    Result second = ship(checkpoint, logs.toString());
+    assertEquals(0, second.getLines());
+
+    write(json, 10, i -> "{\"level\":\"ERROR\",\"seq\":" + i + "}");
+    Result third = ship(checkpoint, logs.toString());
+    assertEquals(10, third.getLines());
+    assertEquals(5_011, server.getAcceptedEvents());
+  }
+
+  @Test
+  public void testSplitOnTooLarge() throws Exception {
+    server.limitLogsPerRequest(100);
+    Path file = folder.newFile("big.log").toPath();
+    write(file, 2_000, i -> "line " + i);
+    Result result = ship(folder.getRoot().toPath().resolve("split.checkpoint"),
+        file.toString());
+    assertEquals(2_000, result.getDelivered());
+    assertEquals(0, result.getRejected());
+    assertEquals(2_000, server.getAcceptedEvents());
+  }
+
+  @Test
+  public void testSkipCheckpointFiles() throws Exception {
+    Path logs = folder.newFolder("with-checkpoint").toPath();
+    write(logs.resolve("app.log"), 100, i -> "line " + i);
+    // 断点文件与上次中断遗留的临时文件位于日志目录中
+    Path checkpoint = logs.resolve(".cls-shipper.checkpoint");
+    write(logs.resolve(".cls-shipper.checkpoint123.tmp"), 5, i -> "temp " + i);
+
+    Result first = ship(checkpoint, logs.toString());
+    assertEquals(100, first.getLines());
+    Result second = ship(checkpoint, logs.toString());
+    assertEquals(0, second.getLines());
+    assertEquals(100, server.getAcceptedEvents());
+  }
+
+  @Test
+  public void testRejectedNotCheckpointed() throws Exception {
+    Path file = folder.newFile("unavailable.log").toPath();
+    write(file, 100, i -> "line " + i);
+    Path checkpoint = folder.getRoot().toPath().resolve("unavailable.checkpoint");
+
+    // 5xx 重试耗尽后放弃,断点不推进且退出码非 0
+    server.injectError(1.0, 503);
+    Result failed = ship(checkpoint, file.toString());
+    assertNull(failed.getFatalError());
+    assertEquals(100, failed.getRejected());
+    assertEquals(1, failed.getFailedBatches());
+    assertEquals(1, failed.getExitCode());
+    assertEquals(0, Checkpoint.load(checkpoint).offset(file));
+
+    // 恢复后续传全部日志
+    server.injectError(0, 503);
+    Result resumed = ship(checkpoint, file.toString());
+    assertEquals(100, resumed.getDelivered());
+    assertEquals(0, resumed.getExitCode());
+    assertEquals(100, server.getAcceptedEvents());
+    assertTrue(Checkpoint.load(checkpoint).offset(file) > 0);
+  }
+
+  private Result ship(Path checkpoint, String file) throws Exception {
+    ShipperOptions options = ShipperOptions.parse("region=ap-guangzhou", "secretId=shipper",
+        "secretKey=shipper", "topicId=shipper", "endpoint=" + server.getEndpoint(),
+        "batchLogs=512", "parallelism=4", "concurrency=8", "checkpoint=" + checkpoint, file);
+    options.validate();
+    return new LogShipper(options).run();
+  }
+
+  private void inspect(Log log) {
+    for (Content content : log.getContentsList()) {
+      if ("level".equals(content.getKey())) {
+        levels.computeIfAbsent(content.getValue(), k -> new LongAdder()).increment();
+      }
+      if ("seq".equals(content.getKey()) && log.getTime() >= 1577836800_000L
+          && log.getTime() < 1577836800_000L + 2_000_000L) {
+        timedLogs.increment();
+      }
+    }
+  }
+
+  private static void write(Path file, int lines, LineFactory factory) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      sb.append(factory.line(i)).append('\n');
+    }
+    Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private interface LineFactory {
+
+    String line(int i);
+  }
+}
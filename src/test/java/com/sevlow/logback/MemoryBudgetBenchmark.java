@@ -0,0 +1,113 @@
+package com.sevlow.logback;
+
+import ch.qos.logback.classic.Level;
+import com.sevlow.cls.logback.MemoryBudget;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 采集路径内存预算计数的并发扩展性 : 分段计数 (MemoryBudget) / 单个 AtomicLong
+ * <p>
+ * 每次操作为一次 admit + acquire,每 1024 次按发送线程的方式整批 release
+ * <p>
+ * 运行 : mvn test-compile exec:java -Dmaven.test.skip=false -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.sevlow.logback.MemoryBudgetBenchmark -Dexec.args="3 1,2,4,8,16,32,64"
+ * <p>
+ * 参数为每项测量的秒数 (默认 3) 与线程数列表 (默认 1,2,4,8,16,32,64)
+ */
+public class MemoryBudgetBenchmark {
+
+  private static final long MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final long EVENT_BYTES = 512;
+
+  private static final int RELEASE_EVERY = 1024;
+
+  public static void main(String[] args) throws InterruptedException {
+    long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+    String[] sweep = (args.length > 1 ? args[1] : "1,2,4,8,16,32,64").split(",");
+    System.out.println(String.format(Locale.ROOT, "cpus=%d",
+        Runtime.getRuntime().availableProcessors()));
+    System.out.println("threads   striped ops/s    atomic ops/s");
+    for (int round = 0; round < 2; round++) {
+      // 第一轮预热
+      boolean print = round == 1;
+      for (String value : sweep) {
+        int threads = Integer.parseInt(value.trim());
+        MemoryBudget budget = new MemoryBudget(MAX_BYTES, 60, 80, 10, threads);
+        double striped = measure(threads, seconds, () -> {
+          if (budget.admit(Level.INFO)) {
+            budget.acquire(EVENT_BYTES);
+          }
+        }, budget::release);
+        SharedCounter shared = new SharedCounter();
+        double atomic = measure(threads, seconds, () -> {
+          if (shared.admit()) {
+            shared.used.addAndGet(EVENT_BYTES);
+          }
+        }, bytes -> shared.used.addAndGet(-bytes));
+        if (print) {
+          System.out.println(String.format(Locale.ROOT, "%7d %15.0f %15.0f", threads, striped,
+              atomic));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return 每秒操作数
+   */
+  private static double measure(int threads, long seconds, Runnable operation, Release release)
+      throws InterruptedException {
+    LongAdder operations = new LongAdder();
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    long[] window = new long[2];
+    for (int t = 0; t < threads; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long count = 0;
+        while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+          operation.run();
+          if (++count % RELEASE_EVERY == 0) {
+            release.release(EVENT_BYTES * RELEASE_EVERY);
+          }
+        }
+        operations.add(count);
+        done.countDown();
+      }, "budget-bench-" + t);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    window[0] = System.nanoTime();
+    start.countDown();
+    done.await();
+    window[1] = System.nanoTime();
+    return operations.sum() / ((window[1] - window[0]) / 1e9);
+  }
+
+  /**
+   * 分段前的计数方式 : 每次判断与计入都访问同一个 AtomicLong
+   */
+  private static final class SharedCounter {
+
+    private final AtomicLong used = new AtomicLong();
+
+    private boolean admit() {
+      return used.get() < MAX_BYTES * 60 / 100;
+    }
+  }
+
+  private interface Release {
+
+    void release(long bytes);
+  }
+}
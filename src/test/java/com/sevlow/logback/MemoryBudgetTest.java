@@ -0,0 +1,169 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.sevlow.cls.logback.CircuitBreaker;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.MemoryBudget;
+import com.sevlow.cls.logback.MemoryBudget.Stage;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+
+  private static final String PAYLOAD;
+
+  static {
+    char[] chars = new char[1024];
+    Arrays.fill(chars, 'x');
+    PAYLOAD = new String(chars);
+  }
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    loggerContext = new LoggerContext();
+  }
+
+  @After
+  public void after() {
+    if (appender != null) {
+      appender.stop();
+    }
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testStages() {
+    MemoryBudget budget = new MemoryBudget(1000, 60, 80, 1_000_000);
+    assertEquals(Stage.NORMAL, budget.getStage());
+    assertTrue(budget.admit(Level.DEBUG));
+
+    budget.acquire(600);
+    assertEquals(Stage.SAMPLING, budget.getStage());
+    assertTrue(budget.admit(Level.WARN));
+
+    budget.acquire(200);
+    assertEquals(Stage.DROP_LOW_LEVEL, budget.getStage());
+    assertFalse(budget.admit(Level.INFO));
+    assertTrue(budget.admit(Level.ERROR));
+
+    budget.acquire(200);
+    assertEquals(Stage.FULL, budget.getStage());
+    assertFalse(budget.admit(Level.ERROR));
+
+    budget.release(1000);
+    assertEquals(Stage.NORMAL, budget.getStage());
+    assertEquals(1, budget.getDroppedLowLevelEvents());
+    assertEquals(1, budget.getDroppedFullEvents());
+  }
+
+  @Test
+  public void testAppenderWatermarks() throws Exception {
+    // 服务端停顿,发送中的数据包仍计入预算
+    server.injectSlow(1.0, 5_000);
+    appender = StandInFixtures.appender(loggerContext, server, "budget");
+    appender.setMaxBufferBytes(4 * 1024 * 1024);
+    appender.setSampleRate(Integer.MAX_VALUE);
+    appender.start();
+    Logger logger = StandInFixtures.logger(loggerContext, appender, "budget", Level.DEBUG);
+    MemoryBudget budget = appender.getMemoryBudget();
+
+    assertTrue(fillUntil(logger, Level.INFO, budget, Stage.SAMPLING));
+    long sampled = budget.getSampledEvents();
+    for (int i = 0; i < 100; i++) {
+      logger.info(PAYLOAD);
+    }
+    assertEquals(100, budget.getSampledEvents() - sampled);
+
+    assertTrue(fillUntil(logger, Level.WARN, budget, Stage.DROP_LOW_LEVEL));
+    long droppedLowLevel = budget.getDroppedLowLevelEvents();
+    for (int i = 0; i < 100; i++) {
+      logger.debug(PAYLOAD);
+      logger.info(PAYLOAD);
+    }
+    assertEquals(200, budget.getDroppedLowLevelEvents() - droppedLowLevel);
+
+    assertTrue(fillUntil(logger, Level.ERROR, budget, Stage.FULL));
+    long droppedFull = budget.getDroppedFullEvents();
+    for (int i = 0; i < 100; i++) {
+      logger.error(PAYLOAD);
+    }
+    assertEquals(100, budget.getDroppedFullEvents() - droppedFull);
+    assertTrue(server.getAcceptedEvents() == 0);
+  }
+
+  @Test
+  public void testBytesReturned() throws Exception {
+    server.injectSlow(1.0, 500);
+    appender = StandInFixtures.appender(loggerContext, server, "budget");
+    // 只在 flush 时发送
+    appender.setSendInterval(5);
+    appender.setMaxSendRetries(0);
+    appender.setCircuitFailureThreshold(1);
+    appender.setDegradePolicy("drop");
+    appender.start();
+    Logger logger = StandInFixtures.logger(loggerContext, appender, "budget");
+    MemoryBudget budget = appender.getMemoryBudget();
+
+    // 送达
+    log(logger, 500);
+    assertTrue(budget.getUsedBytes() > 0);
+    appender.flush().get(10, TimeUnit.SECONDS);
+    assertEquals(500, server.getAcceptedEvents());
+    assertTrue(StandInFixtures.waitFor(() -> budget.getUsedBytes() == 0, 5_000));
+
+    // 放弃 (重试耗尽),随后熔断
+    server.injectSlow(0, 0);
+    server.injectError(1.0, 503);
+    log(logger, 500);
+    appender.flush().get(10, TimeUnit.SECONDS);
+    assertTrue(StandInFixtures.waitFor(() -> budget.getUsedBytes() == 0, 5_000));
+    assertEquals(CircuitBreaker.State.OPEN, appender.getProducer().getCircuitState());
+
+    // 熔断期间按 drop 策略丢弃
+    log(logger, 500);
+    assertTrue(budget.getUsedBytes() > 0);
+    appender.flush().get(10, TimeUnit.SECONDS);
+    assertEquals(0, budget.getUsedBytes());
+    assertEquals(500, appender.getCircuitDroppedLogs().sum());
+  }
+
+  /**
+   * 写入日志直到预算进入 stage
+   */
+  private static boolean fillUntil(Logger logger, Level level, MemoryBudget budget, Stage stage) {
+    for (int i = 0; i < 10_000 && budget.getStage().compareTo(stage) < 0; i++) {
+      if (level == Level.ERROR) {
+        logger.error(PAYLOAD);
+      } else if (level == Level.WARN) {
+        logger.warn(PAYLOAD);
+      } else {
+        logger.info(PAYLOAD);
+      }
+    }
+    return budget.getStage() == stage;
+  }
+
+  private static void log(Logger logger, int count) {
+    for (int i = 0; i < count; i++) {
+      logger.info("budget event {}", i);
+    }
+  }
+}
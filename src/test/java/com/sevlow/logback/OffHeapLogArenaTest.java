@@ -0,0 +1,129 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.logback.OffHeapLogArena;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class OffHeapLogArenaTest {
+
+  @Test
+  public void testFifoAcrossSlabs() throws Exception {
+    OffHeapLogArena arena = new OffHeapLogArena(2 * OffHeapLogArena.SLAB_BYTES);
+    String padding = repeat('x', 1000);
+    int written = 0;
+    while (arena.append(log(written, padding))) {
+      written++;
+    }
+    // 两个 slab 写满后拒绝写入
+    assertTrue(written > OffHeapLogArena.SLAB_BYTES / 1100);
+    assertEquals(written, arena.size());
+
+    int read = 0;
+    List<byte[]> records = new ArrayList<>();
+    for (int round = 0; round < 3; round++) {
+      while (!arena.isEmpty()) {
+        records.clear();
+        arena.poll(records, 500, Long.MAX_VALUE);
+        for (byte[] record : records) {
+          assertEquals(String.valueOf(read++), Log.parseFrom(record).getContents(0).getValue());
+        }
+      }
+      assertEquals(written, read);
+      // 读完的 slab 回收后可重新写满
+      int refill = 0;
+      while (arena.append(log(written, padding))) {
+        written++;
+        refill++;
+      }
+      assertEquals(written - read, refill);
+      assertTrue(refill >= 2 * (OffHeapLogArena.SLAB_BYTES / 1100) - 2);
+    }
+    records.clear();
+    arena.poll(records, Integer.MAX_VALUE, Long.MAX_VALUE);
+    assertEquals(written - read, records.size());
+    assertEquals(0, arena.getUsedBytes());
+  }
+
+  @Test
+  public void testRejectOversize() {
+    OffHeapLogArena arena = new OffHeapLogArena(0);
+    assertEquals(2 * OffHeapLogArena.SLAB_BYTES, arena.getCapacity());
+    assertFalse(arena.append(log(0, repeat('x', OffHeapLogArena.SLAB_BYTES))));
+    assertTrue(arena.isEmpty());
+  }
+
+  @Test
+  public void testStripedWriters() throws Exception {
+    OffHeapLogArena arena = new OffHeapLogArena(16 * OffHeapLogArena.SLAB_BYTES, 4);
+    assertEquals(4, arena.getStripes());
+    int writers = 8;
+    int perWriter = 2_000;
+    Thread[] threads = new Thread[writers];
+    for (int w = 0; w < writers; w++) {
+      int writer = w;
+      threads[w] = new Thread(() -> {
+        for (int i = 0; i < perWriter; i++) {
+          assertTrue(arena.append(log(writer * perWriter + i, "")));
+        }
+      });
+      threads[w].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(writers * perWriter, arena.size());
+
+    // 同一线程的日志顺序不变
+    int[] next = new int[writers];
+    List<byte[]> records = new ArrayList<>();
+    while (!arena.isEmpty()) {
+      records.clear();
+      arena.poll(records, 300, Long.MAX_VALUE);
+      for (byte[] record : records) {
+        int seq = Integer.parseInt(Log.parseFrom(record).getContents(0).getValue());
+        int writer = seq / perWriter;
+        assertEquals(writer * perWriter + next[writer]++, seq);
+      }
+    }
+    for (int count : next) {
+      assertEquals(perWriter, count);
+    }
+    assertEquals(0, arena.getUsedBytes());
+  }
+
+  @Test
+  public void testStripesShareSlabs() {
+    // 分段数不超过 slab 数,单个线程可以写满全部容量
+    OffHeapLogArena arena = new OffHeapLogArena(2 * OffHeapLogArena.SLAB_BYTES, 8);
+    assertEquals(2, arena.getStripes());
+    String padding = repeat('x', 1000);
+    int written = 0;
+    while (arena.append(log(written, padding))) {
+      written++;
+    }
+    assertTrue(written >= 2 * (OffHeapLogArena.SLAB_BYTES / 1100) - 2);
+  }
+
+  private static Log log(int seq, String padding) {
+    return Log.newBuilder()
+        .setTime(seq)
+        .addContents(Content.newBuilder().setKey("seq").setValue(String.valueOf(seq)))
+        .addContents(Content.newBuilder().setKey("padding").setValue(padding))
+        .build();
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder sb = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,131 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sevlow.cls.logback.LogItem;
+import com.sevlow.cls.logback.LogSizes;
+import com.sevlow.cls.logback.OversizeHandler;
+import com.sevlow.cls.logback.OversizeHandler.Policy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OversizeHandlerTest {
+
+  private static final int MAX_FIELD_BYTES = 8 * 1024;
+
+  private static final int MAX_EVENT_BYTES = 32 * 1024;
+
+  private String bigValue;
+
+  @Before
+  public void before() throws IOException {
+    InputStreamReader isReader = new InputStreamReader(
+        OversizeHandlerTest.class.getResourceAsStream("/test_big_value.json"), "UTF-8");
+    BufferedReader reader = new BufferedReader(isReader);
+    StringBuilder sb = new StringBuilder();
+    String str;
+    while ((str = reader.readLine()) != null) {
+      sb.append(str);
+    }
+    bigValue = sb.toString();
+  }
+
+  @Test
+  public void testSmallEventUntouched() {
+    OversizeHandler handler = new OversizeHandler(Policy.TRUNCATE, MAX_FIELD_BYTES,
+        MAX_EVENT_BYTES, 16);
+    LogItem logItem = logItem("small message");
+    assertFalse(handler.isOversize(logItem));
+  }
+
+  @Test
+  public void testTruncate() {
+    OversizeHandler handler = new OversizeHandler(Policy.TRUNCATE, MAX_FIELD_BYTES,
+        MAX_EVENT_BYTES, 16);
+    LogItem logItem = logItem(bigValue);
+    assertTrue(handler.isOversize(logItem));
+
+    List<LogItem> items = handler.handle(logItem);
+    assertEquals(1, items.size());
+    String message = items.get(0).getFormattedMessage();
+    assertTrue(LogSizes.utf8Length(message) <= MAX_FIELD_BYTES);
+    assertTrue(message.endsWith(" bytes]"));
+  }
+
+  @Test
+  public void testChunk() {
+    OversizeHandler handler = new OversizeHandler(Policy.CHUNK, MAX_FIELD_BYTES,
+        MAX_EVENT_BYTES, 64);
+    LogItem logItem = logItem(bigValue);
+    List<LogItem> items = handler.handle(logItem);
+    assertTrue(items.size() > 1);
+
+    StringBuilder joined = new StringBuilder();
+    for (int i = 0; i < items.size(); i++) {
+      LogItem item = items.get(i);
+      assertNotNull(item.getChunkId());
+      assertEquals(items.get(0).getChunkId(), item.getChunkId());
+      assertEquals(i, item.getChunkIndex());
+      assertEquals(items.size(), item.getChunkCount());
+      assertTrue(LogSizes.utf8Length(item.getFormattedMessage()) <= MAX_FIELD_BYTES);
+      assertTrue(item.getEstimatedBytes() <= MAX_EVENT_BYTES);
+      joined.append(item.getFormattedMessage());
+    }
+    assertEquals(bigValue, joined.toString());
+  }
+
+  @Test
+  public void testChunkLimit() {
+    OversizeHandler handler = new OversizeHandler(Policy.CHUNK, MAX_FIELD_BYTES,
+        MAX_EVENT_BYTES, 2);
+    List<LogItem> items = handler.handle(logItem(bigValue));
+    assertEquals(2, items.size());
+    assertTrue(items.get(1).getFormattedMessage().endsWith(" bytes]"));
+  }
+
+  @Test
+  public void testMultiByteEventLimit() {
+    OversizeHandler handler = new OversizeHandler(Policy.TRUNCATE, MAX_FIELD_BYTES,
+        MAX_EVENT_BYTES, 16);
+    // 每个字段 2500 个汉字 (7500 字节) 不超过字段上限,整条日志字符数远小于上限但字节数超限
+    String chinese = repeat('日', 2500);
+    LogItem logItem = logItem(chinese);
+    for (int i = 0; i < 4; i++) {
+      logItem.getMdcFields().put("field" + i, chinese);
+    }
+    logItem.setEstimatedBytes(LogSizes.estimate(logItem));
+    assertTrue(logItem.getEstimatedBytes() > 5 * LogSizes.utf8Length(chinese));
+    assertTrue(handler.isOversize(logItem));
+
+    LogItem limited = handler.handle(logItem).get(0);
+    assertTrue(limited.getEstimatedBytes() <= MAX_EVENT_BYTES);
+    assertTrue(limited.getFormattedMessage().endsWith(" bytes]"));
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder sb = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  private LogItem logItem(String message) {
+    LogItem logItem = new LogItem();
+    logItem.setTime(System.currentTimeMillis());
+    logItem.setLevel("INFO");
+    logItem.setLoggerName(OversizeHandlerTest.class.getName());
+    logItem.setThreadName(Thread.currentThread().getName());
+    logItem.setFormattedMessage(message);
+    logItem.setEstimatedBytes(LogSizes.estimate(logItem));
+    return logItem;
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import cls.Cls.LogGroup;
+import com.sevlow.cls.logback.LogItem;
+import com.sevlow.cls.logback.LoghubAppender;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 积压日志并行编码上传
+ */
+public class ParallelDrainTest {
+
+  private static final int EVENTS = 30_000;
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private Logger logger;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  private final Queue<LogGroup> groups = new ConcurrentLinkedQueue<>();
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    server.onAcceptedGroup(groups::add);
+    loggerContext = new LoggerContext();
+    appender = StandInFixtures.appender(loggerContext, server, "drain");
+    appender.setSendInterval(5);
+    appender.setDrainParallelism(4);
+    appender.start();
+    logger = StandInFixtures.logger(loggerContext, appender, "drain");
+  }
+
+  @After
+  public void after() {
+    appender.stop();
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testOrderedByContextFlow() throws Exception {
+    server.injectSlow(1.0, 100);
+    for (int i = 0; i < EVENTS; i++) {
+      logger.info("drain event {}", i);
+    }
+    assertTrue(StandInFixtures.waitFor(() -> server.getAcceptedEvents() == EVENTS, 30_000));
+
+    // drainPool 的线程只在切分积压时创建,多个线程说明数据包在其中并行编码
+    assertTrue("drain threads " + drainThreads(), drainThreads() > 1);
+    assertTrue("concurrent requests " + server.getMaxConcurrentRequests(),
+        server.getMaxConcurrentRequests() > 1);
+
+    // 按 contextFlow 排序后日志顺序与写入顺序一致
+    List<LogGroup> ordered = new ArrayList<>(groups);
+    ordered.sort(Comparator.comparingLong(ParallelDrainTest::flowOf));
+    int expected = 0;
+    for (LogGroup group : ordered) {
+      for (Log log : group.getLogsList()) {
+        assertEquals(expected++, seqOf(log));
+      }
+    }
+    assertEquals(EVENTS, expected);
+    assertEquals(ordered.size(), ordered.stream().mapToLong(ParallelDrainTest::flowOf)
+        .distinct().count());
+  }
+
+  private static int drainThreads() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("cls-drain-CLS-")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static long flowOf(LogGroup group) {
+    String flow = group.getContextFlow();
+    return Long.parseLong(flow.substring(flow.lastIndexOf('-') + 1));
+  }
+
+  private static int seqOf(Log log) {
+    for (Content content : log.getContentsList()) {
+      if (LogItem.FIELD_FORMATTED_MESSAGE.equals(content.getKey())) {
+        String message = content.getValue();
+        return Integer.parseInt(message.substring(message.lastIndexOf(' ') + 1));
+      }
+    }
+    return -1;
+  }
+}
@@ -1,15 +1,21 @@
 package com.sevlow.logback;
 
+import static org.junit.Assert.assertEquals;
+
 import cls.Cls;
 import cls.Cls.Log;
 import cls.Cls.Log.Content;
 import cls.Cls.LogGroup;
 import cls.Cls.LogGroupList;
 import com.sevlow.cls.config.ClsConfig;
+import com.sevlow.cls.logback.DeliveryResult;
 import com.sevlow.cls.logback.Producer;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -32,9 +38,11 @@ public class ProducerTest {
   }
 
   @Test
-  public void testSend() throws IOException, InterruptedException {
-    this.producer.lz4Upload(TOPIC_ID, lgl());
-    Thread.sleep(20 * 1000);
+  public void testSend()
+      throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    DeliveryResult result = this.producer.lz4Upload(TOPIC_ID, lgl()).get(20, TimeUnit.SECONDS);
+    assertEquals(String.valueOf(result), DeliveryResult.Status.DELIVERED, result.getStatus());
+    assertEquals(1, result.getDeliveredLogs());
   }
 
   private Cls.LogGroupList lgl() throws IOException {
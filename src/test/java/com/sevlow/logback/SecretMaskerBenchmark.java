@@ -0,0 +1,119 @@
+package com.sevlow.logback;
+
+import com.sevlow.cls.logback.MaskRule;
+import com.sevlow.cls.logback.SecretMasker;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * 脱敏吞吐对比 : 不脱敏 / SecretMasker / 逐条正则替换
+ * <p>
+ * 运行 : mvn test-compile exec:java -Dmaven.test.skip=false -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.sevlow.logback.SecretMaskerBenchmark -Dexec.args="5"
+ * <p>
+ * 参数为每项测量的秒数,默认 3
+ */
+public class SecretMaskerBenchmark {
+
+  private static final String[] CLEAN = {
+      "GET /api/orders/8812 200 12ms user=alice region=ap-guangzhou",
+      "order 88121 paid amount=129.00 currency=CNY channel=wechat",
+      "cache miss key=product:9912 fallback=db elapsed=3ms",
+      "scheduled job reconcile finished, processed=1200 failed=0",
+  };
+
+  private static final String[] DIRTY = {
+      "login user=bob password=s3cr3t! from 10.0.0.1",
+      "sms sent to 13812345678 template=verify code=1234",
+      "kyc submitted id 11010119900307123X name=bob",
+      "call api with token=eyJhbGciOiJIUzI1NiJ9.e30.x retry=0",
+  };
+
+  public static void main(String[] args) {
+    long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+    String throwable = stackTrace();
+    List<MaskRule> rules = SecretMaskerTest.rules();
+    SecretMasker masker = SecretMasker.compile(rules);
+    Pattern[] regexes = {
+        Pattern.compile("(?i)(password=)[^\\s,;&\"'<>()\\[\\]{}]+"),
+        Pattern.compile("(?i)(token=)[^\\s,;&\"'<>()\\[\\]{}]+"),
+        Pattern.compile("(?i)(Authorization: Bearer )[^\\s,;&\"'<>()\\[\\]{}]+"),
+        Pattern.compile("AKID[A-Za-z0-9]{32}"),
+        Pattern.compile("(?<!\\d)1[3-9]\\d{9}(?!\\d)"),
+        Pattern.compile("(?<!\\d)\\d{17}[\\dXx](?!\\d)"),
+    };
+    UnaryOperator<String> chained = text -> {
+      String result = text;
+      for (int i = 0; i < regexes.length; i++) {
+        result = regexes[i].matcher(result).replaceAll(i < 3 ? "$1****" : "****");
+      }
+      return result;
+    };
+
+    System.out.println("mode       fields      ns/field   MB/s   (clean messages / 10% dirty / throwable)");
+    for (int round = 0; round < 2; round++) {
+      // 第一轮预热
+      boolean print = round == 1;
+      run("none", UnaryOperator.identity(), seconds, throwable, print);
+      run("masker", masker::mask, seconds, throwable, print);
+      run("regex", chained, seconds, throwable, print);
+    }
+  }
+
+  private static void run(String name, UnaryOperator<String> mask, long seconds,
+      String throwable, boolean print) {
+    long[] result = measure(mask, seconds, i -> CLEAN[i & 3]);
+    long[] mixed = measure(mask, seconds, i -> i % 10 == 0 ? DIRTY[(i / 10) & 3] : CLEAN[i & 3]);
+    long[] stack = measure(mask, seconds, i -> throwable);
+    if (print) {
+      System.out.println(String.format(Locale.ROOT, "%-8s %s | %s | %s", name, format(result),
+          format(mixed), format(stack)));
+    }
+  }
+
+  private static String format(long[] result) {
+    double nanosPerField = (double) result[2] / result[0];
+    double mbPerSecond = result[1] / 1048576.0 / (result[2] / 1e9);
+    return String.format(Locale.ROOT, "%9d %8.1f %7.1f", result[0], nanosPerField, mbPerSecond);
+  }
+
+  /**
+   * @return 字段数, 字符数, 纳秒
+   */
+  private static long[] measure(UnaryOperator<String> mask, long seconds, Source source) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    long fields = 0;
+    long chars = 0;
+    long sink = 0;
+    long start = System.nanoTime();
+    int i = 0;
+    while ((i & 1023) != 0 || System.nanoTime() < deadline) {
+      String text = source.get(i++);
+      sink += mask.apply(text).length();
+      chars += text.length();
+      fields++;
+    }
+    long elapsed = System.nanoTime() - start;
+    if (sink == 42) {
+      System.out.println();
+    }
+    return new long[]{fields, chars, elapsed};
+  }
+
+  private static String stackTrace() {
+    StringBuilder sb = new StringBuilder("java.lang.IllegalStateException: order 88121 failed");
+    for (int i = 0; i < 40; i++) {
+      sb.append("\n\tat com.example.order.OrderService.process").append(i)
+          .append("(OrderService.java:").append(100 + i).append(")");
+    }
+    return sb.toString();
+  }
+
+  private interface Source {
+
+    String get(int i);
+  }
+}
@@ -0,0 +1,159 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import cls.Cls.Log;
+import cls.Cls.Log.Content;
+import com.sevlow.cls.logback.LogItem;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.MaskRule;
+import com.sevlow.cls.logback.SecretMasker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class SecretMaskerTest {
+
+  static List<MaskRule> rules() {
+    List<MaskRule> rules = new ArrayList<>();
+    rules.add(rule("prefix", "password=", null, null));
+    rules.add(rule("prefix", "token=", null, null));
+    rules.add(rule("prefix", "Authorization: Bearer ", null, null));
+    rules.add(rule("literal", "AKID", "AKID[A-Za-z0-9]{32}", "AKID****"));
+    // 手机号
+    rules.add(rule("digits", "11", "1[3-9]\\d{9}", null));
+    // 身份证号
+    rules.add(rule("digits", "18", null, "**ID**"));
+    return rules;
+  }
+
+  static MaskRule rule(String type, String pattern, String regex, String replacement) {
+    MaskRule rule = new MaskRule();
+    rule.setType(type);
+    rule.setPattern(pattern);
+    rule.setRegex(regex);
+    rule.setReplacement(replacement);
+    return rule;
+  }
+
+  @Test
+  public void testMask() {
+    SecretMasker masker = SecretMasker.compile(rules());
+    assertEquals("login user=bob password=**** from 10.0.0.1",
+        masker.mask("login user=bob password=s3cr3t! from 10.0.0.1"));
+    // ASCII 不区分大小写,值到分隔符为止
+    assertEquals("{\"TOKEN=****\",\"x\":1}", masker.mask("{\"TOKEN=abc.def\",\"x\":1}"));
+    assertEquals("header authorization: bearer ****",
+        masker.mask("header authorization: bearer eyJhbGciOi.x.y"));
+    assertEquals("key AKID**** used",
+        masker.mask("key AKIDabcdefghijklmnopqrstuvwxyz123456 used"));
+    // regex 不满足时不替换
+    assertEquals("AKID is short", masker.mask("AKID is short"));
+    assertEquals("call **** or ****, order 123456789012",
+        masker.mask("call 13812345678 or 19912345678, order 123456789012"));
+    // 长度或格式不符的数字不替换
+    assertEquals("not 12812345678 or 138123456789",
+        masker.mask("not 12812345678 or 138123456789"));
+    assertEquals("id **ID**, id **ID**.",
+        masker.mask("id 11010119900307123X, id 110101199003071234."));
+    // 重叠的区间合并
+    assertEquals("password=****", masker.mask("password=13812345678"));
+  }
+
+  @Test
+  public void testNonAsciiPattern() {
+    List<MaskRule> rules = rules();
+    rules.add(rule("prefix", "密码:", null, null));
+    rules.add(rule("prefix", "口令=", null, null));
+    SecretMasker masker = SecretMasker.compile(rules);
+    assertEquals("用户 bob 密码:****,口令=****",
+        masker.mask("用户 bob 密码:s3cr3t,口令=abc"));
+    assertEquals("密 码:abc 口令abc", masker.mask("密 码:abc 口令abc"));
+  }
+
+  @Test
+  public void testDigitsBoundary() {
+    SecretMasker masker = SecretMasker.compile(rules());
+    // 紧邻英文字母或数字的数字串不是独立的号码
+    assertEquals("order13812345678 ref 13812345678abc",
+        masker.mask("order13812345678 ref 13812345678abc"));
+    assertEquals("tel:**** 手机****,id_**ID**",
+        masker.mask("tel:13812345678 手机13812345678,id_110101199003071234"));
+  }
+
+  @Test
+  public void testMaskBeforeChunk() throws Exception {
+    try (ClsStandInServer server = new ClsStandInServer()) {
+      Map<Integer, String> chunks = new ConcurrentHashMap<>();
+      server.onAccepted(log -> chunks.put(chunkIndex(log), contentOf(log, "formattedMessage")));
+      LoggerContext loggerContext = new LoggerContext();
+      LoghubAppender<ILoggingEvent> appender = StandInFixtures.appender(loggerContext, server,
+          "mask");
+      appender.setOversizePolicy("chunk");
+      appender.setMaxFieldBytes(1024);
+      for (MaskRule rule : rules()) {
+        appender.addMask(rule);
+      }
+      appender.start();
+
+      // 两个敏感值都跨越 1024 字节的分片边界
+      String message = repeat('a', 1010) + " password=supersecretvalue " + repeat('b', 1004)
+          + " 13812345678 end";
+      StandInFixtures.logger(loggerContext, appender, "mask").info(message);
+      appender.flush().get(10, TimeUnit.SECONDS);
+      appender.stop();
+      loggerContext.stop();
+
+      assertEquals(2, chunks.size());
+      StringBuilder joined = new StringBuilder();
+      for (int i = 0; i < chunks.size(); i++) {
+        joined.append(chunks.get(i));
+      }
+      assertEquals(repeat('a', 1010) + " password=**** " + repeat('b', 1004) + " **** end",
+          joined.toString());
+    }
+  }
+
+  private static int chunkIndex(Log log) {
+    String index = contentOf(log, LogItem.FIELD_CHUNK_INDEX);
+    return index == null ? 0 : Integer.parseInt(index);
+  }
+
+  private static String contentOf(Log log, String key) {
+    for (Content content : log.getContentsList()) {
+      if (key.equals(content.getKey())) {
+        return content.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder sb = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testNoMatchWithoutCopy() {
+    SecretMasker masker = SecretMasker.compile(rules());
+    String text = "GET /orders/42 took 12ms, pass=ok, tok=1 数字 12345";
+    assertSame(text, masker.mask(text));
+    assertSame(text, SecretMasker.compile(new ArrayList<>()).mask(text));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRule() {
+    List<MaskRule> rules = new ArrayList<>();
+    rules.add(rule("digits", "abc", null, null));
+    SecretMasker.compile(rules);
+  }
+}
@@ -0,0 +1,175 @@
+package com.sevlow.logback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.status.Status;
+import com.sevlow.cls.logback.CircuitBreaker;
+import com.sevlow.cls.logback.ClsError;
+import com.sevlow.cls.logback.ClsError.Kind;
+import com.sevlow.cls.logback.LoghubAppender;
+import com.sevlow.cls.logback.MaskRule;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 根据 CLS 错误响应拆分、限速与停止上报
+ */
+public class ServerFeedbackTest {
+
+  private ClsStandInServer server;
+
+  private LoggerContext loggerContext;
+
+  private Logger logger;
+
+  private LoghubAppender<ILoggingEvent> appender;
+
+  @Before
+  public void before() throws Exception {
+    server = new ClsStandInServer();
+    loggerContext = new LoggerContext();
+    appender = StandInFixtures.appender(loggerContext, server, "feedback");
+    appender.setSendInterval(1);
+    appender.start();
+    logger = StandInFixtures.logger(loggerContext, appender, "feedback");
+  }
+
+  @After
+  public void after() {
+    appender.stop();
+    loggerContext.stop();
+    server.close();
+  }
+
+  @Test
+  public void testClassify() {
+    assertEquals(Kind.TOO_LARGE, ClsError.of(413, "").getKind());
+    assertEquals(Kind.TOO_LARGE,
+        ClsError.of(400, "{\"errorcode\":\"LogSizeExceed\",\"errormessage\":\"x\"}").getKind());
+    assertEquals(Kind.THROTTLED, ClsError.of(429, null).getKind());
+    assertEquals(Kind.FATAL,
+        ClsError.of(400, "{\"errorcode\":\"TopicNotExist\",\"errormessage\":\"x\"}").getKind());
+    assertEquals(Kind.FATAL, ClsError.of(401, "{}").getKind());
+    assertEquals(Kind.RETRYABLE, ClsError.of(502, "bad gateway").getKind());
+    ClsError error = ClsError.of(400,
+        "{\"errorcode\":\"InvalidContent\",\"errormessage\":\"bad \\\"log\\\"\"}");
+    assertEquals(Kind.REJECTED, error.getKind());
+    assertEquals("InvalidContent", error.getCode());
+    assertEquals("bad \\\"log\\\"", error.getMessage());
+  }
+
+  @Test
+  public void testSplitOnTooLarge() throws Exception {
+    server.limitLogsPerRequest(64);
+    log(500);
+    assertTrue(appender.awaitDelivered(15, TimeUnit.SECONDS));
+    assertEquals(500, server.getAcceptedEvents());
+    assertEquals(0, appender.getProducer().getRejectedLogs());
+  }
+
+  @Test
+  public void testBackoffOnThrottle() throws Exception {
+    server.injectError(1.0, 429);
+    log(100);
+    assertTrue(StandInFixtures.waitFor(() -> appender.getProducer().isThrottled("feedback"), 5_000));
+    // 退避期间暂缓发送,新日志保留在缓存中
+    log(100);
+    long requests = server.getRequests();
+    Thread.sleep(500);
+    assertEquals(requests, server.getRequests());
+
+    server.injectError(0, 429);
+    // 退避结束后由发送线程发送
+    assertTrue(appender.awaitDelivered(15, TimeUnit.SECONDS));
+    assertEquals(200, server.getAcceptedEvents());
+    assertEquals(0, appender.getProducer().getRejectedLogs());
+  }
+
+  @Test
+  public void testStopOnFatal() throws Exception {
+    server.injectError(1.0, 401);
+    log(100);
+    assertTrue(StandInFixtures.waitFor(() -> appender.getProducer().getFatalError() != null, 5_000));
+    log(100);
+    assertTrue(StandInFixtures.waitFor(() -> !appender.isStarted(), 5_000));
+    assertFalse(appender.sendOnce());
+    assertEquals(Kind.FATAL, appender.getProducer().getFatalError().getKind());
+    assertEquals(0, server.getAcceptedEvents());
+    assertEquals(200,
+        appender.getProducer().getRejectedLogs() + appender.getFatalDroppedLogs().sum());
+
+    Status error = loggerContext.getStatusManager().getCopyOfStatusList().stream()
+        .filter(s -> s.getLevel() == Status.ERROR).findFirst().orElse(null);
+    assertNotNull(error);
+    assertTrue(error.getMessage().contains("AuthFailure"));
+  }
+
+  @Test
+  public void testProbeReleasedOnEncodeFailure() throws Exception {
+    LoghubAppender<ILoggingEvent> probed = StandInFixtures
+        .appender(loggerContext, server, "probe");
+    probed.setName("PROBE");
+    // 只由测试线程发送
+    probed.setSendInterval(5);
+    probed.setCircuitFailureThreshold(1);
+    probed.setCircuitOpenSeconds(1);
+    MaskRule poison = new MaskRule();
+    poison.setType("literal");
+    poison.setPattern("poison");
+    poison.setRegex("poison(?:a|b)*");
+    probed.addMask(poison);
+    probed.start();
+    Logger probeLogger = StandInFixtures.logger(loggerContext, probed, "probe");
+    try {
+      server.injectError(1.0, 500);
+      probeLogger.info("trip");
+      probed.sendOnce();
+      assertTrue(StandInFixtures.waitFor(
+          () -> probed.getProducer().getCircuitState() == CircuitBreaker.State.OPEN, 5_000));
+      server.injectError(0, 500);
+      Thread.sleep(1_100);
+
+      // 探测数据包编码时栈溢出,没有上传
+      StringBuilder message = new StringBuilder("poison");
+      for (int i = 0; i < 30_000; i++) {
+        message.append("ab");
+      }
+      probeLogger.info(message.toString());
+      AtomicReference<Throwable> thrown = new AtomicReference<>();
+      Thread sender = new Thread(null, () -> {
+        try {
+          probed.sendOnce();
+        } catch (Throwable e) {
+          thrown.set(e);
+        }
+      }, "probe-sender", 256 * 1024);
+      sender.start();
+      sender.join();
+      assertTrue(thrown.get() instanceof StackOverflowError);
+
+      // 许可已归还,下一个数据包作为探测请求发送后恢复
+      probeLogger.info("recovered");
+      probed.sendOnce();
+      assertTrue(StandInFixtures.waitFor(
+          () -> probed.getProducer().getCircuitState() == CircuitBreaker.State.CLOSED, 5_000));
+      assertEquals(1, server.getAcceptedEvents());
+    } finally {
+      probed.stop();
+    }
+  }
+
+  private void log(int count) {
+    for (int i = 0; i < count; i++) {
+      logger.info("feedback event {}", i);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.sevlow.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.sevlow.cls.config.ClsConfig;
+import com.sevlow.cls.logback.LoghubAppender;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 连接 {@link ClsStandInServer} 的测试夹具
+ */
+final class StandInFixtures {
+
+  private StandInFixtures() {
+  }
+
+  /**
+   * @return 上报到替身服务的 appender (未启动),名称为 CLS,topicId 与账号均为 topic
+   */
+  static LoghubAppender<ILoggingEvent> appender(LoggerContext loggerContext,
+      ClsStandInServer server, String topic) {
+    LoghubAppender<ILoggingEvent> appender = new LoghubAppender<>();
+    appender.setContext(loggerContext);
+    appender.setName("CLS");
+    appender.setRegion("ap-guangzhou");
+    appender.setSecretId(topic);
+    appender.setSecretKey(topic);
+    appender.setTopicId(topic);
+    appender.setEndpoint(server.getEndpoint());
+    return appender;
+  }
+
+  /**
+   * @return 只输出到 appender 的 logger
+   */
+  static Logger logger(LoggerContext loggerContext, LoghubAppender<ILoggingEvent> appender,
+      String name, Level level) {
+    Logger logger = loggerContext.getLogger(name);
+    logger.setLevel(level);
+    logger.setAdditive(false);
+    logger.addAppender(appender);
+    return logger;
+  }
+
+  static Logger logger(LoggerContext loggerContext, LoghubAppender<ILoggingEvent> appender,
+      String name) {
+    return logger(loggerContext, appender, name, Level.INFO);
+  }
+
+  /**
+   * @return 上报到替身服务的账号配置
+   */
+  static ClsConfig config(ClsStandInServer server, String topic) {
+    ClsConfig config = new ClsConfig();
+    config.setRegion("ap-guangzhou");
+    config.setSecretId(topic);
+    config.setSecretKey(topic);
+    config.setEndpoint(server.getEndpoint());
+    return config;
+  }
+
+  static boolean waitFor(BooleanSupplier condition, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (System.currentTimeMillis() < deadline) {
+      if (condition.getAsBoolean()) {
+        return true;
+      }
+      Thread.sleep(20);
+    }
+    return condition.getAsBoolean();
+  }
+}
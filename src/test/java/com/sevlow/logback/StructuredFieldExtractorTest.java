@@ -0,0 +1,145 @@
+package com.sevlow.logback;
+
+import static com.sevlow.cls.logback.KeyValue.kv;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.sevlow.cls.logback.KeyValueMarker;
+import com.sevlow.cls.logback.LogItem;
+import com.sevlow.cls.logback.StructuredFieldExtractor;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+
+public class StructuredFieldExtractorTest {
+
+  private final Logger logger = new LoggerContext().getLogger(StructuredFieldExtractorTest.class);
+
+  private final StructuredFieldExtractor extractor = new StructuredFieldExtractor();
+
+  @Test
+  public void testArguments() {
+    LoggingEvent event = event("order {} {} {}", kv("orderId", 1001L), kv("amount", null), "plain");
+    LogItem logItem = new LogItem();
+    extractor.extract(event, logItem);
+
+    Map<String, String> fields = logItem.getStructuredFields();
+    assertEquals(1, fields.size());
+    assertEquals("1001", fields.get("orderId"));
+    assertEquals("order orderId=1001 amount=null plain", event.getFormattedMessage());
+  }
+
+  @Test
+  public void testMarkerReferences() {
+    LoggingEvent event = event("login");
+    org.slf4j.Marker marker = MarkerFactory.getDetachedMarker("AUDIT");
+    marker.add(KeyValueMarker.of(kv("userId", "u-1")));
+    marker.add(new SingleFieldMarker("tenant", "t-1"));
+    event.setMarker(marker);
+    LogItem logItem = new LogItem();
+    extractor.extract(event, logItem);
+
+    Map<String, String> fields = logItem.getStructuredFields();
+    assertEquals("u-1", fields.get("userId"));
+    assertEquals("t-1", fields.get("tenant"));
+    assertFalse(fields.containsKey("AUDIT"));
+  }
+
+  @Test
+  public void testNoFields() {
+    LogItem logItem = new LogItem();
+    extractor.extract(event("plain {}", 1), logItem);
+    assertNull(logItem.getStructuredFields());
+  }
+
+  @Test
+  public void testCollidingKeys() {
+    LoggingEvent event = event("order {} {} {}", kv("level", "vip"), kv("traceId", "t-2"),
+        kv("orderId", 1001L));
+    LogItem logItem = new LogItem();
+    logItem.getMdcFields().put("traceId", "t-1");
+    extractor.extract(event, logItem);
+
+    Map<String, String> fields = logItem.getStructuredFields();
+    assertEquals(3, fields.size());
+    assertEquals("vip", fields.get("arg_level"));
+    assertEquals("t-2", fields.get("arg_traceId"));
+    assertEquals("1001", fields.get("orderId"));
+    assertEquals("t-1", logItem.getMdcFields().get("traceId"));
+  }
+
+  private LoggingEvent event(String message, Object... arguments) {
+    return new LoggingEvent(StructuredFieldExtractorTest.class.getName(), logger, Level.INFO,
+        message, null, arguments);
+  }
+
+  /**
+   * 模拟 logstash-logback-encoder 的 SingleFieldAppendingMarker
+   */
+  private static class SingleFieldMarker implements org.slf4j.Marker {
+
+    private final String fieldName;
+
+    private final Object fieldValue;
+
+    private SingleFieldMarker(String fieldName, Object fieldValue) {
+      this.fieldName = fieldName;
+      this.fieldValue = fieldValue;
+    }
+
+    public String getFieldName() {
+      return fieldName;
+    }
+
+    public Object getFieldValue() {
+      return fieldValue;
+    }
+
+    @Override
+    public String getName() {
+      return "LS_APPEND_OBJECT";
+    }
+
+    @Override
+    public void add(org.slf4j.Marker reference) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(org.slf4j.Marker reference) {
+      return false;
+    }
+
+    @Override
+    public boolean hasChildren() {
+      return false;
+    }
+
+    @Override
+    public boolean hasReferences() {
+      return false;
+    }
+
+    @Override
+    public Iterator<org.slf4j.Marker> iterator() {
+      return Collections.emptyIterator();
+    }
+
+    @Override
+    public boolean contains(org.slf4j.Marker other) {
+      return equals(other);
+    }
+
+    @Override
+    public boolean contains(String name) {
+      return getName().equals(name);
+    }
+  }
+}